@@ -0,0 +1,197 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot policy, that adapts snapshot frequency to measured costs of an entity type. Runtime measures how long it
+ * takes to replay an event during recovery, and how long it takes to store a snapshot. Snapshot is stored when
+ * <ul>
+ *     <li>replaying events since last snapshot would take longer than the recovery budget, and</li>
+ *     <li>storing the snapshot is cheaper than replaying those events.</li>
+ * </ul>
+ * Until first recovery with events is measured, snapshot is stored every {@link #initialInterval(int) initial
+ * interval} events.
+ * <p>Costs are tracked as moving averages, that react to increase faster than to decrease, so that the estimate
+ * leans towards slower recoveries. Use one instance per runtime, as costs differ between entity types.</p>
+ * <pre>
+ * private final AdaptiveSnapshotPolicy snapshotPolicy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS);
+ *
+ * protected AdaptiveSnapshotPolicy getSnapshotPolicy() {
+ *     return snapshotPolicy;
+ * }
+ *
+ * protected boolean shouldStoreSnapshot(MyEntity entity, int eventsSinceSnapshot) {
+ *     return snapshotPolicy.shouldSnapshot(eventsSinceSnapshot);
+ * }
+ * </pre>
+ * @see EventSourcingRuntimeBase#getSnapshotPolicy()
+ */
+public class AdaptiveSnapshotPolicy {
+    private static final double RISE_WEIGHT = 0.5;
+    private static final double DECAY_WEIGHT = 0.05;
+
+    private final long recoveryBudget;
+    private volatile int initialInterval = 100;
+    private volatile double replayNanosPerEvent = Double.NaN;
+    private volatile double snapshotWriteNanos;
+
+    private final AtomicLong recoveries = new AtomicLong();
+    private final AtomicLong snapshotWrites = new AtomicLong();
+    private final AtomicLong snapshotDecisions = new AtomicLong();
+    private final AtomicLong skipDecisions = new AtomicLong();
+
+    /**
+     * Create the policy.
+     * @param recoveryBudget maximum expected time to replay events of an entity
+     * @param unit unit of budget
+     */
+    public AdaptiveSnapshotPolicy(long recoveryBudget, TimeUnit unit) {
+        if (recoveryBudget <= 0) {
+            throw new IllegalArgumentException("Recovery budget must be positive, got " + recoveryBudget);
+        }
+        this.recoveryBudget = unit.toNanos(recoveryBudget);
+    }
+
+    /**
+     * Snapshot interval to use before replay cost is known.
+     * @param events number of events between snapshots, 100 by default
+     * @return this policy
+     */
+    public AdaptiveSnapshotPolicy initialInterval(int events) {
+        if (events < 1) {
+            throw new IllegalArgumentException("Interval must be positive, got " + events);
+        }
+        this.initialInterval = events;
+        return this;
+    }
+
+    /**
+     * Decide whether to store snapshot of an entity.
+     * @param eventsSinceSnapshot events applied since last snapshot
+     * @return true to store snapshot
+     */
+    public boolean shouldSnapshot(int eventsSinceSnapshot) {
+        boolean decision = eventsSinceSnapshot > 0 && decide(eventsSinceSnapshot);
+        (decision ? snapshotDecisions : skipDecisions).incrementAndGet();
+        return decision;
+    }
+
+    private boolean decide(int eventsSinceSnapshot) {
+        double perEvent = replayNanosPerEvent;
+        if (Double.isNaN(perEvent)) {
+            return eventsSinceSnapshot >= initialInterval;
+        }
+        double expectedReplay = eventsSinceSnapshot * perEvent;
+        return expectedReplay > recoveryBudget && expectedReplay > snapshotWriteNanos;
+    }
+
+    /**
+     * Record a recovery of an entity.
+     * @param replayedEvents number of events replayed
+     * @param nanos duration of the replay, not including the query of the events
+     */
+    public void recordRecovery(int replayedEvents, long nanos) {
+        recoveries.incrementAndGet();
+        if (replayedEvents > 0) {
+            double sample = (double) nanos / replayedEvents;
+            double current = replayNanosPerEvent;
+            replayNanosPerEvent = Double.isNaN(current) ? sample : average(current, sample);
+        }
+    }
+
+    /**
+     * Record storing of a snapshot.
+     * @param nanos duration of serializing and storing the snapshot
+     */
+    public void recordSnapshotWrite(long nanos) {
+        double current = snapshotWrites.getAndIncrement() == 0 ? nanos : snapshotWriteNanos;
+        snapshotWriteNanos = average(current, nanos);
+    }
+
+    private static double average(double current, double sample) {
+        // samples are recorded concurrently, occasional lost update does not matter for an estimate
+        double weight = sample > current ? RISE_WEIGHT : DECAY_WEIGHT;
+        return current + weight * (sample - current);
+    }
+
+    /**
+     * Estimated time to replay single event.
+     * @param unit unit of result
+     * @return replay time per event, or -1 when no recovery with events was recorded yet
+     */
+    public double getReplayTimePerEvent(TimeUnit unit) {
+        double perEvent = replayNanosPerEvent;
+        return Double.isNaN(perEvent) ? -1 : perEvent / unit.toNanos(1);
+    }
+
+    /**
+     * Estimated time to store a snapshot.
+     * @param unit unit of result
+     * @return snapshot write time
+     */
+    public double getSnapshotWriteTime(TimeUnit unit) {
+        return snapshotWriteNanos / unit.toNanos(1);
+    }
+
+    /**
+     * Number of events after which snapshot is currently stored.
+     * @return current snapshot interval
+     */
+    public int getCurrentInterval() {
+        double perEvent = replayNanosPerEvent;
+        if (Double.isNaN(perEvent)) {
+            return initialInterval;
+        }
+        if (perEvent <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        double threshold = Math.max(recoveryBudget, snapshotWriteNanos);
+        return (int) Math.min(Integer.MAX_VALUE, Math.floor(threshold / perEvent) + 1);
+    }
+
+    /**
+     * Number of recorded recoveries.
+     * @return recoveries
+     */
+    public long getRecoveryCount() {
+        return recoveries.get();
+    }
+
+    /**
+     * Number of decisions to store snapshot.
+     * @return snapshot decisions
+     */
+    public long getSnapshotDecisions() {
+        return snapshotDecisions.get();
+    }
+
+    /**
+     * Number of decisions not to store snapshot.
+     * @return skip decisions
+     */
+    public long getSkipDecisions() {
+        return skipDecisions.get();
+    }
+}
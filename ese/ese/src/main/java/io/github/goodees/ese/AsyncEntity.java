@@ -20,6 +20,8 @@ package io.github.goodees.ese;
  * #L%
  */
 
+import io.github.goodees.ese.dispatch.Dispatcher;
+import io.github.goodees.ese.store.AsyncEventStore;
 import io.github.goodees.ese.store.EventStore;
 
 import java.util.Arrays;
@@ -35,6 +37,8 @@ import java.util.concurrent.CompletionStage;
  * <p>To emit an event the execute code will call one of persistAndUpdate methods - {@link #persistAndUpdate(Event)},
  * {@link #persistAllAndUpdate(Event[])}, {@link #persistAllAndUpdate(Collection)}. These methods will facilitate persisting the events and
  * updating the state. If the persistAndUpdate succeeds, side effects can be chained to returned {@link CompletionStage}.
+ * <p>When the event store is an {@link AsyncEventStore}, the events are persisted without blocking the executing thread,
+ * otherwise persist is invoked synchronously.</p>
  *
  * @see AsyncEventSourcingRuntime
  */
@@ -83,10 +87,8 @@ public abstract class AsyncEntity extends EventSourcedEntity {
      *    Completes with EventStoreException if it doesn't succeed.
      */
     protected <E extends Event> AsyncResult<E> persistAndUpdate(E event) {
-        return AsyncResult.invoke(() -> {
-            store.persist(event);
-            return event;
-        }).whenComplete((e,t) -> handleEventPersistence(Collections.singleton(e), t));
+        return persist(Collections.singletonList(event), event)
+                .whenComplete((e,t) -> handleEventPersistence(Collections.singleton(e), t));
     }
 
     /**
@@ -98,10 +100,30 @@ public abstract class AsyncEntity extends EventSourcedEntity {
      */
     @SafeVarargs
     protected final <E extends Event> AsyncResult<List<E>> persistAllAndUpdate(E... events) {
-        return AsyncResult.invoke(() -> {
-            store.persist(events);
-            return Arrays.asList(events);
-        }).whenComplete(this::handleEventPersistence);
+        List<E> eventList = Arrays.asList(events);
+        return persist(eventList, eventList).whenComplete(this::handleEventPersistence);
+    }
+
+    private <T> AsyncResult<T> persist(Collection<? extends Event> events, T result) {
+        if (!(store instanceof AsyncEventStore)) {
+            return AsyncResult.invoke(() -> {
+                store.persist(events);
+                return result;
+            });
+        }
+        CompletionStage<Void> persisted;
+        try {
+            persisted = ((AsyncEventStore) store).persistAsync(events);
+        } catch (RuntimeException e) {
+            return AsyncResult.throwing(e);
+        }
+        return AsyncResult.bindTo(callback -> persisted.whenComplete((r, t) -> {
+            if (t == null) {
+                callback.accept(result, null);
+            } else {
+                callback.accept(null, Dispatcher.unwrapCompletionException(t));
+            }
+        }));
     }
 
     private void handleEventPersistence(Collection<? extends Event> events, Throwable t) {
@@ -121,10 +143,7 @@ public abstract class AsyncEntity extends EventSourcedEntity {
      *    Completes with EventStoreException if it doesn't succeed.
      */
     protected <E extends Event> AsyncResult<Collection<E>> persistAllAndUpdate(Collection<E> events) {
-        return AsyncResult.invoke(() -> {
-            store.persist(events);
-            return events;
-        }).whenComplete(this::handleEventPersistence);
+        return persist(events, events).whenComplete(this::handleEventPersistence);
     }
 
     /**
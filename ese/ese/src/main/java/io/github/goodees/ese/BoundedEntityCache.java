@@ -0,0 +1,293 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Entity cache with limited number of entities, that passivates entities not used for given time. Optionally it
+ * also passivates least recently used entities when heap usage after garbage collection exceeds a threshold.
+ *
+ * <p>The cache does not remove entities by itself. It requests their passivation from the runtime, which removes
+ * the entity once no request of it is executing or queued. Therefore number of entities may temporarily exceed the
+ * limit. Once over the limit, the cache requests passivation of least recently used entities down to 90 % of it.
+ * While entities stay over the limit, because their passivation was cancelled by new requests, this is repeated
+ * at most every 10 milliseconds.</p>
+ *
+ * <p>Idle entities are found by a sweep, that runs on access to the cache at most once per second, or when
+ * {@link #sweep()} is called.</p>
+ *
+ * <pre>
+ * protected EntityCache&lt;MyEntity&gt; createEntityCache() {
+ *     return new BoundedEntityCache&lt;&gt;(10_000, 10, TimeUnit.MINUTES, this::requestPassivation)
+ *             .passivateOnHeapPressure(0.8);
+ * }
+ * </pre>
+ * @param <E> type of entities
+ */
+public class BoundedEntityCache<E extends EventSourcedEntity> implements EntityCache<E> {
+    private static final Logger logger = LoggerFactory.getLogger(BoundedEntityCache.class);
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long CAPACITY_SWEEP_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final double LOW_WATER_MARK = 0.9;
+    private static final double HEAP_PRESSURE_PASSIVATION_RATIO = 0.25;
+
+    private final ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final int maxEntities;
+    private final long maxIdle;
+    private final Consumer<String> passivation;
+    private final AtomicInteger pendingPassivations = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweep = System.nanoTime();
+    private volatile long lastCapacitySweep = lastSweep - CAPACITY_SWEEP_INTERVAL;
+    private volatile List<MemoryPoolMXBean> monitoredPools = Collections.emptyList();
+
+    /**
+     * Create the cache.
+     * @param maxEntities maximum number of entities, {@code Integer.MAX_VALUE} for no limit
+     * @param maxIdle time after which an unused entity is passivated, zero or negative for no limit
+     * @param unit unit of maxIdle
+     * @param passivation callback requesting passivation of an entity from the runtime, usually
+     *                    {@link EventSourcingRuntimeBase#requestPassivation(String)}
+     */
+    public BoundedEntityCache(int maxEntities, long maxIdle, TimeUnit unit, Consumer<String> passivation) {
+        if (maxEntities < 1) {
+            throw new IllegalArgumentException("Cache needs to hold at least one entity, got " + maxEntities);
+        }
+        this.maxEntities = maxEntities;
+        this.maxIdle = unit.toNanos(maxIdle);
+        this.passivation = passivation;
+    }
+
+    /**
+     * Passivate a quarter of the entities, when usage of any heap memory pool after garbage collection exceeds
+     * given fraction of its maximum size.
+     * <p>This sets collection usage threshold of the heap pools, which is a setting global to the JVM.</p>
+     * @param heapUsageThreshold fraction of maximum pool size, between 0 and 1
+     * @return this cache
+     * @see MemoryPoolMXBean#setCollectionUsageThreshold(long)
+     */
+    public BoundedEntityCache<E> passivateOnHeapPressure(double heapUsageThreshold) {
+        if (heapUsageThreshold <= 0 || heapUsageThreshold > 1) {
+            throw new IllegalArgumentException("Heap usage threshold must be between 0 and 1, got "
+                    + heapUsageThreshold);
+        }
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * heapUsageThreshold));
+                pools.add(pool);
+            }
+        }
+        this.monitoredPools = pools;
+        return this;
+    }
+
+    @Override
+    public E get(String entityId) {
+        CacheEntry entry = entries.get(entityId);
+        if (entry == null) {
+            return null;
+        }
+        entry.touch();
+        maybeSweep();
+        return entry.entity;
+    }
+
+    @Override
+    public E computeIfAbsent(String entityId, Function<String, ? extends E> recovery) {
+        CacheEntry entry = entries.computeIfAbsent(entityId, id -> new CacheEntry(recovery.apply(id)));
+        entry.touch();
+        maybeSweep();
+        return entry.entity;
+    }
+
+    @Override
+    public boolean remove(String entityId, E entity) {
+        CacheEntry entry = entries.get(entityId);
+        if (entry != null && entry.entity == entity && entries.remove(entityId, entry)) {
+            entry.cancelPassivation();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public E removeForPassivation(String entityId) {
+        CacheEntry entry = entries.get(entityId);
+        if (entry != null && entry.cancelPassivation() && entries.remove(entityId, entry)) {
+            return entry.entity;
+        }
+        return null;
+    }
+
+    @Override
+    public void cancelPassivation(String entityId) {
+        CacheEntry entry = entries.get(entityId);
+        if (entry != null) {
+            entry.cancelPassivation();
+        }
+    }
+
+    @Override
+    public List<String> recentlyUsed(int limit) {
+        return entries.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, CacheEntry> e) -> e.getValue().lastAccess).reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of entities, which passivation was requested, but did not happen yet.
+     * @return number of pending passivations
+     */
+    public int getPendingPassivations() {
+        return pendingPassivations.get();
+    }
+
+    /**
+     * Request passivation of idle entities, and of least recently used ones over the limits.
+     */
+    public void sweep() {
+        if (sweeping.compareAndSet(false, true)) {
+            try {
+                long now = System.nanoTime();
+                lastSweep = now;
+                lastCapacitySweep = now;
+                requestPassivations(now);
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+
+    private void maybeSweep() {
+        long now = System.nanoTime();
+        // entities, which passivation was cancelled, keep the cache over capacity until they get idle,
+        // so capacity sweeps are limited as well, not to scan and sort the cache on every access
+        boolean overCapacity = entries.size() - pendingPassivations.get() > maxEntities
+                && now - lastCapacitySweep >= CAPACITY_SWEEP_INTERVAL;
+        boolean periodic = maxIdle > 0 || !monitoredPools.isEmpty();
+        if (overCapacity || (periodic && now - lastSweep >= SWEEP_INTERVAL)) {
+            sweep();
+        }
+    }
+
+    private void requestPassivations(long now) {
+        List<Map.Entry<String, CacheEntry>> candidates = new ArrayList<>();
+        int idle = 0;
+        for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+            CacheEntry entry = e.getValue();
+            if (entry.passivationRequested.get()) {
+                continue;
+            }
+            if (maxIdle > 0 && now - entry.lastAccess >= maxIdle) {
+                requestPassivation(e.getKey(), entry);
+                idle++;
+            } else {
+                candidates.add(e);
+            }
+        }
+        int lowWaterMark = Math.max((int) (maxEntities * LOW_WATER_MARK), 1);
+        int excess = candidates.size() > maxEntities ? candidates.size() - lowWaterMark : 0;
+        if (isUnderHeapPressure()) {
+            excess = Math.max(excess, (int) Math.ceil(candidates.size() * HEAP_PRESSURE_PASSIVATION_RATIO));
+        }
+        if (excess > 0) {
+            candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            candidates.stream().limit(excess).forEach(e -> requestPassivation(e.getKey(), e.getValue()));
+        }
+        if (idle > 0 || excess > 0) {
+            logger.debug("Requested passivation of {} idle and {} least recently used entities", idle, excess);
+        }
+    }
+
+    private boolean isUnderHeapPressure() {
+        for (MemoryPoolMXBean pool : monitoredPools) {
+            if (pool.isCollectionUsageThresholdExceeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void requestPassivation(String entityId, CacheEntry entry) {
+        if (entry.passivationRequested.compareAndSet(false, true)) {
+            pendingPassivations.incrementAndGet();
+            try {
+                passivation.accept(entityId);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to request passivation of entity {}", entityId, e);
+                entry.cancelPassivation();
+            }
+        }
+    }
+
+    private final class CacheEntry {
+        private final E entity;
+        private final AtomicBoolean passivationRequested = new AtomicBoolean();
+        private volatile long lastAccess;
+
+        CacheEntry(E entity) {
+            this.entity = entity;
+        }
+
+        void touch() {
+            lastAccess = System.nanoTime();
+            // entity is in use again
+            cancelPassivation();
+        }
+
+        boolean cancelPassivation() {
+            if (passivationRequested.get() && passivationRequested.compareAndSet(true, false)) {
+                pendingPassivations.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Freshness strategy, that verifies an entity only after it was notified, that another writer changed it. The
+ * notifications come from outside of the runtime, e. g. from a message broker, or database notification channel.
+ * <p>Notifications about entities, that are not cached by the runtime, are kept until the entity is looked up. To
+ * keep memory bounded, when more than {@code maxPending} notifications are kept, they are dropped, and instead every
+ * entity confirmed before that moment is verified on its next request.</p>
+ */
+public class ChangeNotificationFreshness implements FreshnessStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeNotificationFreshness.class);
+
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    private final int maxPending;
+    private volatile boolean overflowed;
+    private volatile long overflowedAt;
+
+    /**
+     * Create the strategy keeping at most 10 000 pending notifications.
+     */
+    public ChangeNotificationFreshness() {
+        this(10_000);
+    }
+
+    /**
+     * Create the strategy.
+     * @param maxPending number of pending notifications, over which all entities are verified instead
+     */
+    public ChangeNotificationFreshness(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("At least one notification needs to be kept, got " + maxPending);
+        }
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Notify that entity was changed by another writer. Its next request will verify its state.
+     * @param entityId identity of the entity
+     */
+    public void entityChanged(String entityId) {
+        if (changed.add(entityId) && changed.size() > maxPending) {
+            changed.clear();
+            // taken after clearing, so that every dropped notification is covered by it
+            overflowedAt = System.nanoTime();
+            overflowed = true;
+            logger.info("More than {} entities pending verification, verifying all of them", maxPending);
+        }
+    }
+
+    /**
+     * Number of entities that were notified, and did not get verified yet.
+     * @return number of entities
+     */
+    public int getPendingCount() {
+        return changed.size();
+    }
+
+    @Override
+    public boolean shouldVerify(EventSourcedEntity entity, long sinceConfirmation) {
+        if (changed.remove(entity.getIdentity())) {
+            return true;
+        }
+        // entity confirmed before notifications were dropped may have missed one
+        return overflowed && System.nanoTime() - sinceConfirmation - overflowedAt <= 0;
+    }
+}
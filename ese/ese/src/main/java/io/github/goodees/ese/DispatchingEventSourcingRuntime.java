@@ -28,7 +28,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
@@ -158,7 +160,19 @@ public abstract class DispatchingEventSourcingRuntime<E extends EventSourcedEnti
         return getDispatcher().executeLaterWithTimeout(id, request, delay, dUnit, timeout, tUnit);
     }
 
+    /**
+     * Number of requests queued for an entity. Callers may use it to shed load before the capacity of entity's mailbox
+     * is exceeded.
+     * @param entityId identity of an entity
+     * @return number of queued requests, not including the one being executed
+     * @see io.github.goodees.ese.dispatch.DispatcherConfiguration#mailboxCapacity()
+     */
+    public int getQueueDepth(String entityId) {
+        return getDispatcher().getQueueDepth(entityId);
+    }
+
     private volatile Dispatcher dispatcher;
+    private boolean shutdown;
 
     /**
      * Lazily initialized {@link Dispatcher} to use for the callbacks.
@@ -172,15 +186,77 @@ public abstract class DispatchingEventSourcingRuntime<E extends EventSourcedEnti
         return dispatcher;
     }
 
-    // The only lock in entire implementation prevents double initialization of Dispatcher;
+    // prevents double initialization of Dispatcher, and its creation after shutdown
     private synchronized void initialize() {
+        if (shutdown) {
+            throw new IllegalStateException("Runtime of " + getEntityName() + " was shut down");
+        }
         if (dispatcher == null) {
             this.dispatcher = createDispatcher();
         }
     }
 
     /**
-     * Create dispatcher before first use.
+     * Release resources of the dispatcher, like its timer thread, periodic tasks and virtual thread executor. Call
+     * when the runtime is no longer used, e. g. from {@code @PreDestroy} method of the bean owning it, so that the
+     * threads do not outlive an undeployed application. Services returned by {@link #getExecutorService()} and
+     * {@link #getScheduler()} are not shut down.
+     * @see Dispatcher#shutdown()
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Passivate the entity within its mailbox, so that it does not run concurrently with its requests. Entities with
+     * queued requests are not passivated. Passivation is not subject to limits of the dispatcher, and when it does
+     * not happen the entity cache is told to {@linkplain EntityCache#cancelPassivation(String) cancel the request}.
+     * @param entityId identity of the entity
+     */
+    @Override
+    protected void requestPassivation(String entityId) {
+        getDispatcher().executeUnbounded(entityId, Passivation.INSTANCE).whenComplete((passivated, t) -> {
+            if (t != null || !passivated) {
+                getEntityCache().cancelPassivation(entityId);
+            }
+        });
+    }
+
+    /**
+     * Internal request, that passivates the entity, when it has no queued requests.
+     */
+    private enum Passivation implements Request<Boolean> {
+        INSTANCE
+    }
+
+    /**
+     * Whether to run entity invocations on virtual threads instead of {@link #getExecutorService()}. Suitable for
+     * entities blocking on I/O, like {@link SyncEntity} persisting to JDBC store, as blocked entities do not hold
+     * platform threads. Requires Java 21 runtime, on older runtimes {@link #getExecutorService()} is used.
+     * @return true to use virtual threads, false by default
+     * @see DispatcherConfiguration#virtualThreads()
+     */
+    protected boolean useVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * Executor for recovering entities, that are not in memory. When provided, recovery does not occupy the thread
+     * of the entity's mailbox, and the request is invoked on the executor of the mailbox after the entity is
+     * recovered. Other requests of the entity still wait for the recovery.
+     * @return executor for recovery, or null (the default) to recover on the thread executing the request
+     * @see #lookupAsync(String, Executor)
+     */
+    protected Executor getRecoveryExecutor() {
+        return null;
+    }
+
+    /**
+     * Create dispatcher before first use. Override to return {@link io.github.goodees.ese.dispatch.AffineDispatcher}
+     * in order to run every entity on a fixed thread instead of {@link #getExecutorService()}.
      * @return dispatcher instance
      * @see #getDispatcherConfiguration() Default configuration of the dispatcher
      */
@@ -195,10 +271,12 @@ public abstract class DispatchingEventSourcingRuntime<E extends EventSourcedEnti
      *     <li>scheduler service is determined by {@link #getScheduler()}</li>
      *     <li>dispatcher name is determined by {@link #getEntityName()}</li>
      *     <li>retry delay is determined by {@link #retryDelay(String, Request, Throwable, int)}</li>
+     *     <li>use of virtual threads is determined by {@link #useVirtualThreads()}</li>
      * </ul>
      * Actual execution flow is following:
      * <ol>
-     *     <li>Entity instance is obtained via {@link #lookup(String)}</li>
+     *     <li>Entity instance is obtained via {@link #lookup(String)}, or via
+     *         {@link #lookupAsync(String, Executor)} when {@link #getRecoveryExecutor()} is provided</li>
      *     <li>Request is invoked by passing control to {@link #invokeEntity(EventSourcedEntity, Request, BiConsumer)}</li>
      *     <li>The passed callback with call {@link #handleCompletion(String, EventSourcedEntity, Throwable)} and then pass
      *         control back to dispatcher</li>
@@ -227,10 +305,58 @@ public abstract class DispatchingEventSourcingRuntime<E extends EventSourcedEnti
             return getEntityName();
         }
 
+        @Override
+        public boolean virtualThreads() {
+            return useVirtualThreads();
+        }
+
         @Override
         public <R extends Request<RS>, RS> void execute(String entityId, R request, BiConsumer<RS, Throwable> callback) {
+            if (request == Passivation.INSTANCE) {
+                passivateInMailbox(entityId, passivationCallback(callback));
+                return;
+            }
+            Executor recoveryExecutor = getRecoveryExecutor();
+            if (recoveryExecutor == null) {
+                E entity;
+                try {
+                    entity = lookup(entityId);
+                } catch (Exception e) {
+                    logger.error("Fatal error while looking up entity {} for invocation of request {}", entityId, request, e);
+                    callback.accept(null, e);
+                    return;
+                }
+                invoke(entityId, entity, request, callback);
+                return;
+            }
+            CompletableFuture<E> lookup = lookupAsync(entityId, recoveryExecutor);
+            BiConsumer<E, Throwable> invocation = (entity, t) -> {
+                if (t != null) {
+                    t = Dispatcher.unwrapCompletionException(t);
+                    logger.error("Fatal error while looking up entity {} for invocation of request {}", entityId, request, t);
+                    callback.accept(null, t);
+                } else {
+                    invoke(entityId, entity, request, callback);
+                }
+            };
+            if (lookup.isDone()) {
+                lookup.whenComplete(invocation);
+            } else {
+                // do not run the entity on recovery executor, but where the mailbox runs
+                Executor executor = getDispatcher().getExecutor(entityId);
+                lookup.whenComplete((entity, t) -> {
+                    try {
+                        executor.execute(() -> invocation.accept(entity, t));
+                    } catch (RejectedExecutionException e) {
+                        logger.error("Cannot invoke request {} of recovered entity {}", request, entityId, e);
+                        callback.accept(null, e);
+                    }
+                });
+            }
+        }
+
+        private <R extends Request<RS>, RS> void invoke(String entityId, E entity, R request, BiConsumer<RS, Throwable> callback) {
             try {
-                E entity = lookup(entityId);
                 Objects.requireNonNull(entity, () -> "Lookup returned null for entityId " + entityId);
                 entity.getInvocationState().preInvocation();
                 BiConsumer<RS, Throwable> completion = (rs, t) -> {
@@ -256,6 +382,23 @@ public abstract class DispatchingEventSourcingRuntime<E extends EventSourcedEnti
             }
         }
 
+        /**
+         * Passivation is {@code Request<Boolean>}, therefore its response type is Boolean.
+         */
+        @SuppressWarnings("unchecked")
+        private <RS> BiConsumer<Boolean, Throwable> passivationCallback(BiConsumer<RS, Throwable> callback) {
+            return (BiConsumer<Boolean, Throwable>) callback;
+        }
+
+        private void passivateInMailbox(String entityId, BiConsumer<Boolean, Throwable> callback) {
+            try {
+                callback.accept(getDispatcher().getQueueDepth(entityId) == 0 && passivate(entityId), null);
+            } catch (Exception e) {
+                logger.warn("Passivation of entity {} failed", entityId, e);
+                callback.accept(false, e);
+            }
+        }
+
         @Override
         public long retryDelay(String id, Request<?> request, Throwable t, int completedAttempts) {
             return DispatchingEventSourcingRuntime.this.retryDelay(id, request, t, completedAttempts);
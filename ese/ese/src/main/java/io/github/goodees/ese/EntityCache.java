@@ -0,0 +1,99 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Cache of entity instances held by a runtime. Every entity in the cache is initialized, and the runtime guarantees
+ * there is only one instance per entity id.
+ * <p>Cache may decide to remove entities, e. g. to limit memory usage. It must not remove them by itself, as the
+ * entity may be executing a request at the moment. It asks the runtime instead via passivation callback, and runtime
+ * calls {@link #removeForPassivation(String)} when it is safe to do so.</p>
+ * @param <E> type of entities
+ * @see EventSourcingRuntimeBase#createEntityCache()
+ * @see BoundedEntityCache
+ */
+public interface EntityCache<E extends EventSourcedEntity> {
+    /**
+     * Return cached entity.
+     * @param entityId entity id
+     * @return the entity or null when it is not cached
+     */
+    E get(String entityId);
+
+    /**
+     * Return cached entity, or recover and cache new instance.
+     * @param entityId entity id
+     * @param recovery function to create and recover new instance
+     * @return cached or recovered entity
+     */
+    E computeIfAbsent(String entityId, Function<String, ? extends E> recovery);
+
+    /**
+     * Remove specific instance of the entity, e. g. when its state is known to be stale.
+     * @param entityId entity id
+     * @param entity instance to remove
+     * @return true if the instance was removed
+     */
+    boolean remove(String entityId, E entity);
+
+    /**
+     * Remove entity, that the cache requested to passivate, if it is still eligible for it. Called by runtime while no
+     * request of the entity executes.
+     * @param entityId entity id
+     * @return removed entity, or null if the entity should stay in the cache
+     */
+    E removeForPassivation(String entityId);
+
+    /**
+     * Forget passivation request of an entity, that the runtime could not or did not execute. The cache may request
+     * passivation of the entity again later.
+     * @param entityId entity id
+     */
+    default void cancelPassivation(String entityId) {
+    }
+
+    /**
+     * Identities of cached entities, most recently used first. Serves for preloading the same entities after restart.
+     * @param limit maximum number of identities to return
+     * @return identities of cached entities
+     * @see EventSourcingRuntimeBase#saveHotEntityIds(java.nio.file.Path, int)
+     */
+    List<String> recentlyUsed(int limit);
+
+    /**
+     * Number of cached entities.
+     * @return number of entities
+     */
+    int size();
+
+    /**
+     * Cache without any limits. Entities are only removed by runtime.
+     * @param <E> type of entities
+     * @return new cache instance
+     */
+    static <E extends EventSourcedEntity> EntityCache<E> unbounded() {
+        return new UnboundedEntityCache<>();
+    }
+}
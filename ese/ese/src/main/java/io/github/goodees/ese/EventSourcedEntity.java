@@ -53,6 +53,7 @@ public abstract class EventSourcedEntity {
     private long stateVersion;
     private int eventsSinceSnapshot;
     private long nextEventVersion;
+    private long stateConfirmedAt = System.nanoTime();
     private InvocationState invocationState = new InvocationState();
 
     /**
@@ -94,6 +95,21 @@ public abstract class EventSourcedEntity {
         this.eventsSinceSnapshot = 0;
     }
 
+    /**
+     * Called by the runtime after the state was recovered, or confirmed to be the latest known one.
+     */
+    final void stateConfirmed() {
+        this.stateConfirmedAt = System.nanoTime();
+    }
+
+    /**
+     * Time passed since the state was last recovered, or confirmed to be the latest known one.
+     * @return time in nanoseconds
+     */
+    final long nanosSinceStateConfirmed() {
+        return System.nanoTime() - stateConfirmedAt;
+    }
+
     /**
      * Called by the runtime after snapshot is saved to reset eventSinceSnapshot counter
      */
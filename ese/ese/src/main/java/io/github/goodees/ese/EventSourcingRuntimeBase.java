@@ -20,16 +20,34 @@ package io.github.goodees.ese;
  * #L%
  */
 
+import io.github.goodees.ese.store.AsyncSnapshotWriter;
 import io.github.goodees.ese.store.EventLog;
 import io.github.goodees.ese.store.EventStore;
 import io.github.goodees.ese.store.SnapshotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * Common logic for facade to speaking with entities. It instantiates the entities, recovers their state, manages their snapshots
@@ -52,7 +70,9 @@ public abstract class EventSourcingRuntimeBase<E extends EventSourcedEntity> {
      * {@link SnapshotStore#recover(EventSourcedEntity, EventLog, SnapshotStore.EntityStateHandler)} to initialize
      * an EventSourcedEntity.
      */
-    protected static final SnapshotStore.EntityStateHandler RECOVERY_STATE_HANDLER = new SnapshotStore.EntityStateHandler() {
+    protected static final SnapshotStore.EntityStateHandler RECOVERY_STATE_HANDLER = new RecoveryStateHandler();
+
+    private static class RecoveryStateHandler implements SnapshotStore.EntityStateHandler {
         @Override
         public void updateStateVersion(EventSourcedEntity entity, long version) {
             entity.updateStateVersion(version);
@@ -70,6 +90,7 @@ public abstract class EventSourcingRuntimeBase<E extends EventSourcedEntity> {
 
         @Override
         public void finishRecover(EventSourcedEntity entity) {
+            entity.stateConfirmed();
             entity.initialize();
             entity.getInvocationState().initialized();
         }
@@ -83,9 +104,23 @@ public abstract class EventSourcingRuntimeBase<E extends EventSourcedEntity> {
         public Object createSnapshot(EventSourcedEntity entity) {
             return entity.createSnapshot();
         }
+    }
+
+    /**
+     * State handler of this runtime, that also reports recoveries to {@link #getSnapshotPolicy()}.
+     */
+    private final SnapshotStore.EntityStateHandler recoveryHandler = new RecoveryStateHandler() {
+        @Override
+        public void recovered(EventSourcedEntity entity, int replayedEvents, long nanos) {
+            AdaptiveSnapshotPolicy policy = getSnapshotPolicy();
+            if (policy != null) {
+                policy.recordRecovery(replayedEvents, nanos);
+            }
+        }
     };
 
-    private ConcurrentMap<String, E> entities = new ConcurrentHashMap<>();
+    private volatile EntityCache<E> entities;
+    private final ConcurrentMap<String, CompletableFuture<E>> recoveries = new ConcurrentHashMap<>();
 
     /**
      * Create a new uninitialized instance for given id. Serves for creating the entity with reference to the
@@ -187,19 +222,137 @@ public abstract class EventSourcingRuntimeBase<E extends EventSourcedEntity> {
             }
             entity.getInvocationState().postInvocation();
             if (shouldStoreSnapshot(entity, entity.getEventsSinceSnapshot())) {
-                if (getSnapshotStore().store(entity, RECOVERY_STATE_HANDLER)) {
-                    // reset eventsSinceSnapshot
-                    entity.snapshotStored();
+                storeSnapshot(entity);
+            }
+        }
+    }
+
+    private void storeSnapshot(E entity) {
+        AsyncSnapshotWriter writer = getSnapshotWriter();
+        if (writer == null) {
+            long start = System.nanoTime();
+            if (getSnapshotStore().store(entity, recoveryHandler)) {
+                AdaptiveSnapshotPolicy policy = getSnapshotPolicy();
+                if (policy != null) {
+                    policy.recordSnapshotWrite(System.nanoTime() - start);
                 }
+                // reset eventsSinceSnapshot
+                entity.snapshotStored();
             }
+            return;
         }
+        Object snapshot;
+        try {
+            snapshot = recoveryHandler.createSnapshot(entity);
+        } catch (Exception e) {
+            logger.error("Creating snapshot of entity {} failed", entity.getIdentity(), e);
+            return;
+        }
+        AdaptiveSnapshotPolicy policy = getSnapshotPolicy();
+        if (snapshot != null && writer.submit(entity.getIdentity(), entity.getStateVersion(), snapshot,
+                policy == null ? null : policy::recordSnapshotWrite)) {
+            // the snapshot is taken, its write is up to the writer
+            entity.snapshotStored();
+        }
+    }
+
+    /**
+     * Writer for storing snapshots in background. When present, the entity's snapshot is still created after the
+     * invocation, but it is serialized and stored by the writer, so the request does not wait for the snapshot store.
+     * Snapshots returned by {@link EventSourcedEntity#createSnapshot()} then must not share mutable state with
+     * the entity.
+     * @return the snapshot writer, or null (the default) to store snapshots synchronously
+     */
+    protected AsyncSnapshotWriter getSnapshotWriter() {
+        return null;
     }
 
     private void clearEntity(String entityId, E entity) {
-        entities.remove(entityId);
+        getEntityCache().remove(entityId, entity);
         dispose(entity);
     }
 
+    /**
+     * Cache of initialized entities of this runtime.
+     * @return the entity cache
+     * @see #createEntityCache()
+     */
+    protected EntityCache<E> getEntityCache() {
+        if (entities == null) {
+            initializeEntityCache();
+        }
+        return entities;
+    }
+
+    private synchronized void initializeEntityCache() {
+        if (entities == null) {
+            entities = createEntityCache();
+        }
+    }
+
+    /**
+     * Create the cache of entities before first use. Default cache keeps every entity, that was looked up, in memory.
+     * Override to return {@link BoundedEntityCache} in order to limit number of entities in memory.
+     * @return new entity cache
+     */
+    protected EntityCache<E> createEntityCache() {
+        return EntityCache.unbounded();
+    }
+
+    /**
+     * Called by the entity cache to remove an entity from memory. Passivation must not run concurrently with
+     * a request of the entity. Default implementation passivates immediately, which is only safe when the runtime
+     * does not execute requests at the same time. {@link DispatchingEventSourcingRuntime} executes the passivation as a
+     * request of the entity instead.
+     * @param entityId identity of the entity
+     * @see EntityCache
+     */
+    protected void requestPassivation(String entityId) {
+        passivate(entityId);
+    }
+
+    /**
+     * Remove entity from memory, if entity cache still considers it eligible. Entity is optionally snapshotted and
+     * then {@linkplain #dispose(EventSourcedEntity) disposed}.
+     * @param entityId identity of the entity
+     * @return true if entity was passivated
+     * @see #shouldSnapshotOnPassivation(EventSourcedEntity, int)
+     */
+    protected boolean passivate(String entityId) {
+        E entity = getEntityCache().removeForPassivation(entityId);
+        if (entity == null) {
+            return false;
+        }
+        int eventsSinceSnapshot = entity.getEventsSinceSnapshot();
+        if (eventsSinceSnapshot > 0 && shouldSnapshotOnPassivation(entity, eventsSinceSnapshot)) {
+            storeSnapshot(entity);
+        }
+        logger.debug("Passivating entity {}", entityId);
+        dispose(entity);
+        return true;
+    }
+
+    /**
+     * Decide if snapshot should be stored before an entity is passivated, so that it would recover faster next time.
+     * Only called when events were applied since last snapshot.
+     * @param entity the entity to be passivated
+     * @param eventsSinceSnapshot events applied since last snapshot
+     * @return true to store snapshot, false by default
+     */
+    protected boolean shouldSnapshotOnPassivation(E entity, int eventsSinceSnapshot) {
+        return false;
+    }
+
+    /**
+     * Adaptive snapshot policy of this runtime. When present, runtime records cost of recoveries and snapshot writes
+     * into it, including writes done by {@link #getSnapshotWriter()}. Runtime still decides by {@link #shouldStoreSnapshot(EventSourcedEntity, int)}, which
+     * should then delegate to {@link AdaptiveSnapshotPolicy#shouldSnapshot(int)}.
+     * @return the snapshot policy, or null (the default) when costs are not measured
+     */
+    protected AdaptiveSnapshotPolicy getSnapshotPolicy() {
+        return null;
+    }
+
     /**
      * Decide if snapshot should be stored for given instance. The decision, and snapshot is done after request has
      * been invoked.
@@ -210,13 +363,31 @@ public abstract class EventSourcingRuntimeBase<E extends EventSourcedEntity> {
     protected abstract boolean shouldStoreSnapshot(E entity, int eventsSinceSnapshot);
 
     /**
-     * Compare current current instance to latest known state.
+     * Compare current current instance to latest known state. The event log is only consulted, when
+     * {@linkplain #getFreshnessStrategy() freshness strategy} requires so.
      *
      * @param entity the instance of an entity
      * @return false if state of the instance is not the last known
      */
     protected boolean isInLatestKnownState(E entity) {
-        return getEventLog().confirmsEntityReflectsCurrentState(entity);
+        if (!getFreshnessStrategy().shouldVerify(entity, entity.nanosSinceStateConfirmed())) {
+            return true;
+        }
+        if (getEventLog().confirmsEntityReflectsCurrentState(entity)) {
+            entity.stateConfirmed();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Strategy deciding when cached entity needs to be verified against the event log. Default strategy verifies
+     * before every request. Runtimes that are the only writers of their entities should use
+     * {@link FreshnessStrategy#SOLE_WRITER}.
+     * @return freshness strategy
+     */
+    protected FreshnessStrategy getFreshnessStrategy() {
+        return FreshnessStrategy.ALWAYS;
     }
 
     /**
@@ -240,17 +411,231 @@ public abstract class EventSourcingRuntimeBase<E extends EventSourcedEntity> {
      */
     protected E lookup(String entityId) {
         //MP: If instantiate and recover fails, then there is nothing you can do. So ex will just propagate to client.
-        E entity = entities.computeIfAbsent(entityId, this::recoverEntity);
+        try {
+            // recovery runs in calling thread, but outside of entity cache's locks
+            return lookupAsync(entityId, Runnable::run).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Obtain entity instance without blocking calling thread on its recovery. Cached entity is returned immediately,
+     * after it is brought up to date. Otherwise recovery, as described in {@link #lookup(String)}, is started on given
+     * executor. Concurrent lookups of the same entity share single recovery, and recovery never blocks lookups of
+     * other entities.
+     * @param entityId the identity of an entity
+     * @param recoveryExecutor executor to recover the entity on
+     * @return future instance in latest known state
+     */
+    protected CompletableFuture<E> lookupAsync(String entityId, Executor recoveryExecutor) {
+        try {
+            E entity = getEntityCache().get(entityId);
+            if (entity == null) {
+                return recover(entityId, recoveryExecutor).thenApply(this::refresh);
+            }
+            return CompletableFuture.completedFuture(refresh(entity));
+        } catch (RuntimeException | Error e) {
+            CompletableFuture<E> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private E refresh(E entity) {
         if (!isInLatestKnownState(entity)) {
-            getSnapshotStore().recover(entity, getEventLog(), RECOVERY_STATE_HANDLER);
+            getSnapshotStore().recover(entity, getEventLog(), recoveryHandler);
         }
         // assert invocation state is idle...
         return entity;
     }
 
+    private CompletableFuture<E> recover(String entityId, Executor recoveryExecutor) {
+        CompletableFuture<E> recovery = new CompletableFuture<>();
+        CompletableFuture<E> running = recoveries.putIfAbsent(entityId, recovery);
+        if (running != null) {
+            return running;
+        }
+        try {
+            recoveryExecutor.execute(() -> completeRecovery(entityId, recovery));
+        } catch (RejectedExecutionException e) {
+            recoveries.remove(entityId, recovery);
+            recovery.completeExceptionally(e);
+        }
+        return recovery;
+    }
+
+    private void completeRecovery(String entityId, CompletableFuture<E> recovery) {
+        try {
+            // previous recovery might have finished since the cache was checked
+            E entity = getEntityCache().get(entityId);
+            if (entity == null) {
+                E recovered = recoverEntity(entityId);
+                entity = getEntityCache().computeIfAbsent(entityId, id -> recovered);
+            }
+            finishRecovery(entityId, recovery, entity, null);
+        } catch (RuntimeException | Error e) {
+            finishRecovery(entityId, recovery, null, e);
+        }
+    }
+
+    private void finishRecovery(String entityId, CompletableFuture<E> recovery, E entity, Throwable failure) {
+        recoveries.remove(entityId, recovery);
+        if (failure != null) {
+            recovery.completeExceptionally(failure);
+        } else {
+            recovery.complete(entity);
+        }
+    }
+
+    /**
+     * Recover entities ahead of their first request, e. g. after application start. Entities are recovered in batches
+     * of {@link #getWarmUpBatchSize()}, so that snapshot store can retrieve snapshots of whole batch at once,
+     * and up to {@code concurrency} batches are recovered in parallel. Entities, that are already in memory or being
+     * recovered, are skipped. Failure to recover an entity is logged and does not stop the warm up.
+     * @param entityIds identities of entities to recover
+     * @param executor executor to recover entities on
+     * @param concurrency maximum number of batches recovered at the same time
+     * @return future number of recovered entities, that completes when warm up finishes
+     * @see #loadHotEntityIds(Path)
+     */
+    public CompletableFuture<Integer> warmUp(Collection<String> entityIds, Executor executor, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive, got " + concurrency);
+        }
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(entityIds));
+        int batchSize = Math.max(getWarmUpBatchSize(), 1);
+        Queue<List<String>> batches = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            batches.add(ids.subList(i, Math.min(i + batchSize, ids.size())));
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (batches.isEmpty()) {
+            result.complete(0);
+            return result;
+        }
+        int workers = Math.min(concurrency, batches.size());
+        AtomicInteger recovered = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger(workers);
+        Runnable worker = () -> {
+            try {
+                for (List<String> batch = batches.poll(); batch != null; batch = batches.poll()) {
+                    recovered.addAndGet(warmUpBatch(batch));
+                }
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    logger.info("Warm up recovered {} of {} entities", recovered.get(), ids.size());
+                    result.complete(recovered.get());
+                }
+            }
+        };
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                batches.clear();
+                result.completeExceptionally(e);
+                running.addAndGet(i - workers);
+                break;
+            }
+        }
+        return result;
+    }
+
+    private int warmUpBatch(List<String> batch) {
+        Map<String, CompletableFuture<E>> claimed = new HashMap<>();
+        List<E> instances = new ArrayList<>();
+        for (String entityId : batch) {
+            CompletableFuture<E> recovery = new CompletableFuture<>();
+            if (recoveries.putIfAbsent(entityId, recovery) != null) {
+                continue;
+            }
+            claimed.put(entityId, recovery);
+            E cached = getEntityCache().get(entityId);
+            if (cached != null) {
+                finishRecovery(entityId, recovery, cached, null);
+                continue;
+            }
+            try {
+                instances.add(instantiate(entityId));
+            } catch (RuntimeException | Error e) {
+                logger.warn("Warm up of entity {} failed", entityId, e);
+                finishRecovery(entityId, recovery, null, e);
+            }
+        }
+        if (instances.isEmpty()) {
+            return 0;
+        }
+        SnapshotStore<?> snapshotStore = getSnapshotStore();
+        Map<String, Exception> failures;
+        try {
+            failures = snapshotStore.recoverAll(instances, getEventLog(), recoveryHandler);
+        } catch (RuntimeException | Error e) {
+            logger.warn("Warm up of {} entities failed", instances.size(), e);
+            instances.forEach(instance -> finishRecovery(instance.getIdentity(), claimed.get(instance.getIdentity()), null, e));
+            return 0;
+        }
+        int recovered = 0;
+        for (E instance : instances) {
+            String entityId = instance.getIdentity();
+            Exception failure = failures.get(entityId);
+            if (failure != null) {
+                logger.warn("Warm up of entity {} failed", entityId, failure);
+                finishRecovery(entityId, claimed.get(entityId), null, failure);
+            } else {
+                E entity = getEntityCache().computeIfAbsent(entityId, id -> instance);
+                finishRecovery(entityId, claimed.get(entityId), entity, null);
+                recovered++;
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Number of entities recovered together during {@link #warmUp(Collection, Executor, int) warm up}.
+     * @return batch size, 100 by default
+     */
+    protected int getWarmUpBatchSize() {
+        return 100;
+    }
+
+    /**
+     * Write identities of most recently used entities into a file, one per line. Call it before shutdown, and pass
+     * the identities to {@link #warmUp(Collection, Executor, int)} on next start to preload the same entities.
+     * @param file file to write to
+     * @param limit maximum number of entities
+     * @throws IOException when file cannot be written
+     * @see EntityCache#recentlyUsed(int)
+     */
+    public void saveHotEntityIds(Path file, int limit) throws IOException {
+        Files.write(file, getEntityCache().recentlyUsed(limit), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read identities saved by {@link #saveHotEntityIds(Path, int)}.
+     * @param file file to read from
+     * @return identities of entities, empty when the file does not exist
+     * @throws IOException when file cannot be read
+     */
+    public static List<String> loadHotEntityIds(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+    }
+
     private E recoverEntity(String entityId) {
         E instance = instantiate(entityId);
-        getSnapshotStore().recover(instance, getEventLog(), RECOVERY_STATE_HANDLER);
+        getSnapshotStore().recover(instance, getEventLog(), recoveryHandler);
         return instance;
     }
 }
@@ -0,0 +1,65 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides, when a cached entity needs to be verified against the event log before it executes a request. Each
+ * verification costs a round trip to the event log, usually to the database.
+ * @see EventSourcingRuntimeBase#getFreshnessStrategy()
+ * @see io.github.goodees.ese.store.EventLog#confirmsEntityReflectsCurrentState(EventSourcedEntity)
+ */
+@FunctionalInterface
+public interface FreshnessStrategy {
+    /**
+     * Verify every entity before every request. Safe when other processes write events of the entities.
+     */
+    FreshnessStrategy ALWAYS = (entity, sinceConfirmation) -> true;
+
+    /**
+     * Never verify entities. Safe only when this runtime is the only writer of its entities' events, because cached
+     * entities then always reflect all events. If another writer appears anyway, entity's next write fails on
+     * optimistic lock, and the entity is recovered.
+     */
+    FreshnessStrategy SOLE_WRITER = (entity, sinceConfirmation) -> false;
+
+    /**
+     * Decide whether the entity should be verified.
+     * @param entity cached entity about to execute a request
+     * @param sinceConfirmation nanoseconds since the entity was last recovered or verified
+     * @return true to verify the entity against the event log
+     */
+    boolean shouldVerify(EventSourcedEntity entity, long sinceConfirmation);
+
+    /**
+     * Verify entities only when their last verification is older than given window. Within the window, entity may
+     * execute request on state that misses events of other writers.
+     * @param window tolerated staleness
+     * @param unit unit of window
+     * @return the strategy
+     */
+    static FreshnessStrategy stalenessWindow(long window, TimeUnit unit) {
+        long windowNanos = unit.toNanos(window);
+        return (entity, sinceConfirmation) -> sinceConfirmation >= windowNanos;
+    }
+}
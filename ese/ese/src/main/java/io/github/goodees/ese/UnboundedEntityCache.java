@@ -0,0 +1,68 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Entity cache backed by plain ConcurrentHashMap.
+ */
+class UnboundedEntityCache<E extends EventSourcedEntity> implements EntityCache<E> {
+    private final ConcurrentMap<String, E> entities = new ConcurrentHashMap<>();
+
+    @Override
+    public E get(String entityId) {
+        return entities.get(entityId);
+    }
+
+    @Override
+    public E computeIfAbsent(String entityId, Function<String, ? extends E> recovery) {
+        return entities.computeIfAbsent(entityId, recovery);
+    }
+
+    @Override
+    public boolean remove(String entityId, E entity) {
+        return entities.remove(entityId, entity);
+    }
+
+    @Override
+    public E removeForPassivation(String entityId) {
+        return entities.remove(entityId);
+    }
+
+    /**
+     * Unbounded cache does not track access, so arbitrary cached entities are returned.
+     */
+    @Override
+    public List<String> recentlyUsed(int limit) {
+        return entities.keySet().stream().limit(limit).collect(Collectors.toList());
+    }
+
+    @Override
+    public int size() {
+        return entities.size();
+    }
+}
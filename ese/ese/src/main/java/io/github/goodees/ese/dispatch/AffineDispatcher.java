@@ -0,0 +1,113 @@
+package io.github.goodees.ese.dispatch;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher, that runs every entity on a fixed lane. A lane is a single thread with its own queue, and entity id is
+ * hashed onto one of them. Consecutive requests of an entity are therefore executed on the same thread, keeping the
+ * entity's state in that core's cache, and lanes do not contend on a shared executor queue.
+ *
+ * <p>{@link DispatcherConfiguration#executorService()} is not used by this dispatcher. Since entities sharing a lane
+ * wait for each other, it is suitable for entities, that do not block their thread. Lanes should be released by
+ * {@link #shutdown()} when dispatcher is no longer needed.</p>
+ *
+ * <p>Use it by overriding {@link io.github.goodees.ese.DispatchingEventSourcingRuntime#createDispatcher()}.</p>
+ */
+public class AffineDispatcher extends Dispatcher {
+    private final ExecutorService[] lanes;
+
+    /**
+     * Create dispatcher with one lane per available processor.
+     * @param conf configuration of the dispatcher
+     */
+    public AffineDispatcher(DispatcherConfiguration conf) {
+        this(conf, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AffineDispatcher(DispatcherConfiguration conf, int laneCount) {
+        super(conf);
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("At least one lane is required, got " + laneCount);
+        }
+        this.lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = conf.dispatcherName() + "-lane-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    @Override
+    protected ExecutorService executorFor(String id) {
+        return lanes[laneOf(id)];
+    }
+
+    /**
+     * Index of lane the entity runs on.
+     * @param id entity id
+     * @return lane index
+     */
+    public int laneOf(String id) {
+        int h = id.hashCode();
+        // spread higher bits, as ids often differ only in suffix
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Stop accepting new work on the lanes. Already queued mailbox turns are still processed.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * Wait for lanes to terminate after {@link #shutdown()}.
+     * @param timeout maximum time to wait for all lanes together
+     * @param unit unit of timeout
+     * @return true if all lanes terminated
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
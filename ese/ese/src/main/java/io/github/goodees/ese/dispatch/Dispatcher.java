@@ -27,23 +27,58 @@ import org.slf4j.LoggerFactory;
 import java.time.Instant;
 import java.util.Deque;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Asynchronous message dispatcher. Guarantees to handle at most one message at time per entity. Internally, the dispatcher
  * maintains a queue of invocations for every entity id. Whenever a new request should be invoked, the dispatcher checks
  * if it is not invoking a request already.
+ * <p>Mailboxes of entities that are not processing anything and have no delayed invocations pending are removed by
+ * {@link #reclaimIdleMailboxes()}, which runs periodically when {@link DispatcherConfiguration#mailboxReclaimInterval()}
+ * is positive.</p>
+ * <p>Number of invocations queued per entity and number of invocations in flight in the whole dispatcher may be bounded.
+ * What happens to a request exceeding the bounds is decided by {@link DispatcherConfiguration#overflowPolicy()}.</p>
  */
 public class Dispatcher {
+    private static final long BACKPRESSURE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int TIMING_WHEEL_SIZE = 512;
 
     private final DispatcherConfiguration conf;
     private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
     private final Logger logger;
+    private final int mailboxCapacity;
+    private final int maxInFlight;
+    private final OverflowPolicy overflowPolicy;
+    private final long backpressureTimeout;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ExecutorService virtualThreadExecutor;
+    private final HashedTimingWheel timingWheel;
+    private final ScheduledFuture<?> reclaimTask;
 
     public Dispatcher(DispatcherConfiguration conf) {
         this.conf = conf;
         this.logger = LoggerFactory.getLogger(getClass().getName()+"."+conf.dispatcherName());
+        this.mailboxCapacity = conf.mailboxCapacity();
+        this.maxInFlight = conf.maxInFlight();
+        this.overflowPolicy = conf.overflowPolicy();
+        this.backpressureTimeout = TimeUnit.MILLISECONDS.toNanos(conf.backpressureTimeout());
+        this.virtualThreadExecutor = conf.virtualThreads() ? VirtualThreads.newVirtualThreadPerTaskExecutor() : null;
+        if (conf.virtualThreads() && virtualThreadExecutor == null) {
+            logger.warn("Virtual threads are not available in this runtime, using configured executor service");
+        }
+        long tickDuration = conf.timerTickDuration();
+        this.timingWheel = tickDuration > 0
+                ? new HashedTimingWheel(conf.dispatcherName() + "-timer", tickDuration, TimeUnit.MILLISECONDS,
+                    TIMING_WHEEL_SIZE)
+                : null;
+        long reclaimInterval = conf.mailboxReclaimInterval();
+        this.reclaimTask = reclaimInterval > 0
+                ? conf.schedulerService().scheduleWithFixedDelay(this::reclaimIdleMailboxes, reclaimInterval,
+                    reclaimInterval, TimeUnit.MILLISECONDS)
+                : null;
     }
 
     /**
@@ -58,9 +93,32 @@ public class Dispatcher {
      * @return the promise for the response
      */
     public <R extends Request<RS>, RS> CompletableFuture<RS> execute(String id, R request) {
-        Mailbox mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
-        CompletableFuture<RS> result = mailbox.enqueue(request);
-        return result;
+        Mailbox mailbox = retainMailbox(id);
+        try {
+            return mailbox.enqueue(request);
+        } finally {
+            mailbox.release();
+        }
+    }
+
+    /**
+     * Schedule a request regardless of {@link DispatcherConfiguration#mailboxCapacity()},
+     * {@link DispatcherConfiguration#maxInFlight()} and overflow policy. Meant for housekeeping requests of the runtime,
+     * like passivation, that should neither wait for nor displace client requests. The request still counts towards
+     * queue depth of the entity.
+     * @param id      entity id
+     * @param request request to pass
+     * @param <R>     type of request
+     * @param <RS>    type of response
+     * @return the promise for the response
+     */
+    public <R extends Request<RS>, RS> CompletableFuture<RS> executeUnbounded(String id, R request) {
+        Mailbox mailbox = retainMailbox(id);
+        try {
+            return mailbox.enqueueUnbounded(request);
+        } finally {
+            mailbox.release();
+        }
     }
 
     /**
@@ -75,9 +133,12 @@ public class Dispatcher {
      * @return the promise for the result
      */
     public <R extends Request<RS>, RS> CompletableFuture<RS> executeWithTimeout(String id, R request, long timeout, TimeUnit unit) {
-        Mailbox mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
-        CompletableFuture<RS> result = mailbox.enqueueWithTimeout(request, timeout, unit);
-        return result;
+        Mailbox mailbox = retainMailbox(id);
+        try {
+            return mailbox.enqueueWithTimeout(request, timeout, unit);
+        } finally {
+            mailbox.release();
+        }
     }
 
     /**
@@ -91,9 +152,12 @@ public class Dispatcher {
      * @return the promise for the result
      */
     public <R extends Request<RS>, RS> CompletableFuture<RS> executeLater(String id, R request, long delay, TimeUnit unit) {
-        Mailbox mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
-        CompletableFuture<RS> result = mailbox.enqueueLater(request, delay, unit);
-        return result;
+        Mailbox mailbox = retainMailbox(id);
+        try {
+            return mailbox.enqueueLater(request, delay, unit);
+        } finally {
+            mailbox.release();
+        }
     }
 
     /**
@@ -109,29 +173,242 @@ public class Dispatcher {
      * @return the promise for the result
      */
     public <R extends Request<RS>, RS> CompletableFuture<RS> executeLaterWithTimeout(String id, R request, long delay, TimeUnit dUnit, long timeout, TimeUnit tUnit) {
-        Mailbox mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
-        CompletableFuture<RS> result = mailbox.enqueueLaterWithTimeout(request, delay, dUnit, timeout, tUnit);
+        Mailbox mailbox = retainMailbox(id);
+        try {
+            return mailbox.enqueueLaterWithTimeout(request, delay, dUnit, timeout, tUnit);
+        } finally {
+            mailbox.release();
+        }
+    }
+
+    /**
+     * Number of invocations queued for an entity. Invocation being executed, or scheduled for later execution are not
+     * counted. Clients may use this to shed load before the mailbox overflows.
+     * @param id entity id
+     * @return number of queued invocations
+     * @see DispatcherConfiguration#mailboxCapacity()
+     */
+    public int getQueueDepth(String id) {
+        Mailbox mailbox = mailboxes.get(id);
+        return mailbox == null ? 0 : mailbox.depth.get();
+    }
+
+    /**
+     * Executor invocations of an entity run on. Asynchronous continuations of an invocation should continue on it, so
+     * that the entity keeps running on its lane or virtual threads.
+     * @param id entity id
+     * @return the executor of entity's mailbox
+     * @see #executorFor(String)
+     */
+    public Executor getExecutor(String id) {
+        Mailbox mailbox = mailboxes.get(id);
+        return mailbox != null ? mailbox.executor : executorFor(id);
+    }
+
+    /**
+     * Number of invocations that were accepted and did not complete yet. Only tracked when
+     * {@link DispatcherConfiguration#maxInFlight()} is bounded.
+     * @return number of invocations in flight, or zero when not bounded
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Number of mailboxes currently held by the dispatcher. Every entity that received a request since its mailbox
+     * was last reclaimed has one.
+     * @return number of live mailboxes
+     */
+    public int getMailboxCount() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Remove mailboxes, that are not processing any invocation, have no invocation queued and no delayed invocation
+     * pending. Entities receiving requests concurrently with the reclamation will get a new mailbox.
+     * @return number of mailboxes removed
+     */
+    public int reclaimIdleMailboxes() {
+        int reclaimed = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            if (mailbox.tryRetire()) {
+                mailboxes.remove(mailbox.id, mailbox);
+                reclaimed++;
+            }
+        }
+        if (reclaimed > 0) {
+            logger.debug("Reclaimed {} idle mailboxes, {} remain", reclaimed, mailboxes.size());
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Obtain a mailbox for an entity, that cannot be reclaimed until {@link Mailbox#release()} is called.
+     * @param id entity id
+     * @return retained mailbox
+     */
+    private Mailbox retainMailbox(String id) {
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
+            if (mailbox.retain()) {
+                return mailbox;
+            }
+            // the mailbox is just being reclaimed, and will be removed from the map momentarily, or it turned out
+            // to be busy and will be usable again.
+            Thread.yield();
+        }
+    }
+
+    private boolean tryAcquireInFlight() {
+        if (maxInFlight == Integer.MAX_VALUE) {
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseInFlight() {
+        if (maxInFlight != Integer.MAX_VALUE) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait a bit before attempting admission again, if overflow policy and timeout permits.
+     * @param waitStart the time waiting for admission started
+     * @return false if the invocation should be rejected
+     */
+    private boolean backOff(long waitStart) {
+        if (overflowPolicy != OverflowPolicy.BACKPRESSURE || System.nanoTime() - waitStart >= backpressureTimeout
+                || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+        return true;
+    }
+
+    private static <RS> CompletableFuture<RS> rejected(RejectedExecutionException e) {
+        FutureResponse<RS> result = new FutureResponse<>(() -> {});
+        result.doCompleteExceptionally(e);
         return result;
     }
 
+    /**
+     * Release resources of the dispatcher. Periodic reclamation of idle mailboxes stops. When timing wheel is used,
+     * pending timeouts fire immediately, cancelling their invocations, and pending delayed invocations fail with
+     * {@link RejectedExecutionException}. Virtual thread executor stops accepting new turns. Executor and scheduler
+     * services of the configuration are not shut down.
+     */
+    public void shutdown() {
+        if (reclaimTask != null) {
+            reclaimTask.cancel(false);
+        }
+        if (timingWheel != null) {
+            for (Runnable task : timingWheel.stop()) {
+                if (task instanceof DelayedEnqueue) {
+                    ((DelayedEnqueue) task).reject();
+                } else {
+                    task.run();
+                }
+            }
+        }
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Schedule timeout or delayed enqueue on the timing wheel, when enabled, or on the scheduler service.
+     * @param task the task to run
+     * @param delay delay of the task
+     * @param unit unit of delay
+     * @return action cancelling the task
+     */
+    private Runnable schedule(Runnable task, long delay, TimeUnit unit) {
+        if (timingWheel != null) {
+            HashedTimingWheel.Timeout timeout = timingWheel.schedule(task, delay, unit);
+            return timeout::cancel;
+        } else {
+            ScheduledFuture<?> future = conf.schedulerService().schedule(task, delay, unit);
+            return () -> future.cancel(false);
+        }
+    }
+
+    /**
+     * Executor the mailbox of an entity runs on. Called once per mailbox. Default implementation returns
+     * {@link DispatcherConfiguration#executorService()} for all entities, or virtual thread executor if enabled by
+     * {@link DispatcherConfiguration#virtualThreads()}.
+     * @param id entity id
+     * @return the executor service to submit the mailbox to
+     */
+    protected ExecutorService executorFor(String id) {
+        return virtualThreadExecutor != null ? virtualThreadExecutor : conf.executorService();
+    }
+
     public static Throwable unwrapCompletionException(Throwable ex) {
         while (ex != null && ex.getCause() != null && ex instanceof CompletionException) {
             ex = ex.getCause();
         }
         return ex;
     }
+
+    /**
+     * Delayed enqueue of an invocation, which is rejected instead of run when dispatcher shuts down.
+     */
+    private static final class DelayedEnqueue implements Runnable {
+        private final Mailbox mailbox;
+        private final Mailbox.Invocation<?, ?> inv;
+
+        DelayedEnqueue(Mailbox mailbox, Mailbox.Invocation<?, ?> inv) {
+            this.mailbox = mailbox;
+            this.inv = inv;
+        }
+
+        @Override
+        public void run() {
+            mailbox.enqueueDelayedInvocation(inv);
+        }
+
+        void reject() {
+            mailbox.rejectDelayedInvocation(inv);
+        }
+    }
+
     /**
      * Queue of messages for single entity. At this level we're handling the concurrency between adding new request,
      * and executing only single request.
      */
     class Mailbox implements Runnable {
+        private static final int RETIRED = -1;
         private final String id;
         private final Deque<Invocation<?,?>> queue = new ConcurrentLinkedDeque<>();
         private final AtomicInteger enqueuesWhileBusy = new AtomicInteger();
         private final AtomicReference currentInvocation = new AtomicReference<>();
+        /**
+         * Number of clients currently enqueuing into this mailbox, or {@code RETIRED} when mailbox was reclaimed.
+         */
+        private final AtomicInteger references = new AtomicInteger();
+        /**
+         * Number of invocations that are scheduled to be enqueued in the future.
+         */
+        private final AtomicInteger pendingDelayed = new AtomicInteger();
+        /**
+         * Number of live invocations in the queue. Incremented before adding to the queue, decremented when an
+         * invocation is claimed from it by dequeue, drop or cancellation.
+         */
+        private final AtomicInteger depth = new AtomicInteger();
+        private final ExecutorService executor;
 
         public Mailbox(String id) {
             this.id = id;
+            this.executor = executorFor(id);
         }
 
         /**
@@ -143,39 +420,205 @@ public class Dispatcher {
          * @return
          */
         <R extends Request<RS>, RS> CompletableFuture<RS> enqueue(R request) {
-            Invocation<R, RS> inv = new Invocation<>(id, request);
+            MailboxOverflowException rejection = admit(true);
+            if (rejection != null) {
+                return rejected(rejection);
+            }
+            Invocation<R, RS> inv = admitted(new Invocation<>(id, request));
             return enqueueInvocation(inv);
         }
+        <R extends Request<RS>, RS> CompletableFuture<RS> enqueueUnbounded(R request) {
+            depth.incrementAndGet();
+            return enqueueInvocation(new Invocation<>(id, request));
+        }
+
         <R extends Request<RS>, RS> CompletableFuture<RS> enqueueWithTimeout(R request, long timeout, TimeUnit unit) {
-            Invocation<R, RS> inv = new Invocation<>(id, request, timeout, unit);
+            MailboxOverflowException rejection = admit(true);
+            if (rejection != null) {
+                return rejected(rejection);
+            }
+            Invocation<R, RS> inv;
+            try {
+                inv = admitted(new Invocation<>(id, request, timeout, unit));
+            } catch (RejectedExecutionException e) {
+                depth.decrementAndGet();
+                releaseInFlight();
+                return rejected(e);
+            }
             return enqueueInvocation(inv);
         }
 
         <R extends Request<RS>, RS> CompletableFuture<RS> enqueueLater(R request, long delay, TimeUnit unit) {
-            Invocation<R, RS> inv = new Invocation<>(id, request);
+            MailboxOverflowException rejection = admit(false);
+            if (rejection != null) {
+                return rejected(rejection);
+            }
+            Invocation<R, RS> inv = admitted(new Invocation<>(id, request));
             return enqueueInvocationLater(inv, delay, unit);
         }
         <R extends Request<RS>, RS> CompletableFuture<RS> enqueueLaterWithTimeout(R request, long delay, TimeUnit dUnit, long timeout, TimeUnit tUnit) {
-            Invocation<R, RS> inv = new Invocation<>(id, request, timeout, tUnit);
+            MailboxOverflowException rejection = admit(false);
+            if (rejection != null) {
+                return rejected(rejection);
+            }
+            Invocation<R, RS> inv;
+            try {
+                inv = admitted(new Invocation<>(id, request, timeout, tUnit));
+            } catch (RejectedExecutionException e) {
+                releaseInFlight();
+                return rejected(e);
+            }
             return enqueueInvocationLater(inv, delay, dUnit);
         }
 
+        /**
+         * Reserve capacity for new invocation in the dispatcher, and if it is going to be queued right away, also in
+         * the mailbox. Overflow policy decides what happens when either of capacities are exhausted.
+         * @param queued true if the invocation will be queued, false if it is delayed
+         * @return null when capacity was reserved, otherwise the exception to reject the request with
+         */
+        private MailboxOverflowException admit(boolean queued) {
+            long waitStart = System.nanoTime();
+            while (!tryAcquireInFlight()) {
+                // dropped invocation completes, and releases its place
+                if (!(overflowPolicy == OverflowPolicy.DROP_OLDEST && dropOldest()) && !backOff(waitStart)) {
+                    logger.debug("Rejecting request for {}, dispatcher reached {} invocations in flight", id,
+                        maxInFlight);
+                    return MailboxOverflowException.dispatcherFull(conf.dispatcherName(), maxInFlight);
+                }
+            }
+            while (queued && !tryReserveDepth()) {
+                if (!(overflowPolicy == OverflowPolicy.DROP_OLDEST && dropOldest()) && !backOff(waitStart)) {
+                    releaseInFlight();
+                    logger.debug("Rejecting request for {}, mailbox reached {} queued invocations", id,
+                        mailboxCapacity);
+                    return MailboxOverflowException.mailboxFull(id, mailboxCapacity);
+                }
+            }
+            return null;
+        }
+
+        private <R extends Request<RS>, RS> Invocation<R, RS> admitted(Invocation<R, RS> inv) {
+            if (maxInFlight != Integer.MAX_VALUE) {
+                inv.result.whenComplete((r, t) -> releaseInFlight());
+            }
+            return inv;
+        }
+
+        private boolean tryReserveDepth() {
+            if (mailboxCapacity == Integer.MAX_VALUE) {
+                depth.incrementAndGet();
+                return true;
+            }
+            while (true) {
+                int current = depth.get();
+                if (current >= mailboxCapacity) {
+                    return false;
+                }
+                if (depth.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Remove oldest queued invocation, and complete it exceptionally.
+         * @return false if there was nothing to drop
+         */
+        private boolean dropOldest() {
+            for (Invocation<?, ?> oldest = queue.pollFirst(); oldest != null; oldest = queue.pollFirst()) {
+                if (oldest.claim()) {
+                    oldest.drop();
+                    return true;
+                }
+            }
+            return false;
+        }
+
         <R extends Request<RS>, RS> CompletableFuture<RS> enqueueInvocationLater(Invocation<R, RS> inv, long delay, TimeUnit unit) {
-            conf.schedulerService().schedule(() -> this.enqueueInvocation(inv), delay, unit);
+            pendingDelayed.incrementAndGet();
+            try {
+                schedule(new DelayedEnqueue(this, inv), delay, unit);
+            } catch (RejectedExecutionException e) {
+                pendingDelayed.decrementAndGet();
+                // retried invocation is still executing, therefore it is failed without claiming it
+                inv.fail(e);
+            }
             return inv.result;
         }
 
+        private void rejectDelayedInvocation(Invocation<?, ?> inv) {
+            try {
+                inv.reject(new RejectedExecutionException("Dispatcher " + conf.dispatcherName() + " was shut down"));
+            } finally {
+                pendingDelayed.decrementAndGet();
+            }
+        }
+
+        private void enqueueDelayedInvocation(Invocation<?, ?> inv) {
+            try {
+                if (!inv.result.isCancelled()) {
+                    depth.incrementAndGet();
+                    enqueueInvocation(inv);
+                }
+            } finally {
+                // decremented only after the invocation is counted in enqueuesWhileBusy, so that tryRetire never sees
+                // both counters at zero in between.
+                pendingDelayed.decrementAndGet();
+            }
+        }
+
+        /**
+         * Prevent the mailbox from being reclaimed while a client enqueues into it.
+         * @return false if the mailbox has already been reclaimed and a new one needs to be obtained
+         */
+        boolean retain() {
+            while (true) {
+                int refs = references.get();
+                if (refs == RETIRED) {
+                    return false;
+                }
+                if (references.compareAndSet(refs, refs + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            references.decrementAndGet();
+        }
+
+        /**
+         * Mark the mailbox as reclaimed, if nobody is enqueuing, nothing is queued or executing, and no delayed
+         * invocation is pending. Once retired, no invocation will ever be added to the mailbox.
+         * @return true if the mailbox was retired and should be removed
+         */
+        boolean tryRetire() {
+            if (!references.compareAndSet(0, RETIRED)) {
+                return false;
+            }
+            // no client may increment counters past this point. Delayed invocations are enqueued before they stop
+            // being pending, therefore the order of reads matters.
+            if (pendingDelayed.get() == 0 && enqueuesWhileBusy.get() == 0) {
+                return true;
+            }
+            references.set(0);
+            return false;
+        }
+
         /**
-         * Add an invocation to queue, and process it if it is the first one.
+         * Add an invocation to queue, and process it if it is the first one. The invocation needs to be already
+         * counted in queue depth.
          * @param inv
          * @param <R>
          * @param <RS>
          * @return
          */
         <R extends Request<RS>, RS> CompletableFuture<RS> enqueueInvocation(Invocation<R, RS> inv) {
+            inv.queued.set(true);
             queue.add(inv);
             if (canStartProcessing()) {
-                conf.executorService().submit(this);
+                executor.submit(this);
             }
             return inv.result;
         }
@@ -196,20 +639,41 @@ public class Dispatcher {
         }
 
         /**
-         * Process single message.
+         * Process a turn of messages.
          * Called when Mailbox is submitted for execution and not processing, but also at end
          * of processing. This way even messages that arrives during processing (or are retried) will be processed.
+         * <p>As long as invocations complete synchronously, the turn continues with next invocation until
+         * {@link DispatcherConfiguration#throughput()} invocations were processed or
+         * {@link DispatcherConfiguration#throughputDeadline()} passes. Then the mailbox is resubmitted to the executor
+         * to give other mailboxes fair chance. Invocation completing asynchronously ends the turn, and mailbox is
+         * resubmitted upon its completion.</p>
          */
         @Override
         public void run() {
-            Invocation<?,?> inv = nextInvocation();
-            if (inv != null) {
-                if (currentInvocation.compareAndSet(null, inv)) {
-                    inv.run();
-                } else {
+            int throughput = conf.throughput();
+            long deadline = TimeUnit.MILLISECONDS.toNanos(conf.throughputDeadline());
+            long turnStart = System.nanoTime();
+            for (int processed = 1; ; processed++) {
+                Invocation<?,?> inv = nextInvocation();
+                if (inv == null) {
+                    return;
+                }
+                if (!currentInvocation.compareAndSet(null, inv)) {
                     logger.error("Submit has run while invocation is is progress. Current invocation: {}, " +
                             "dequeued invocation: {}", currentInvocation, inv);
+                    depth.incrementAndGet();
+                    inv.queued.set(true);
                     queue.addFirst(inv);
+                    return;
+                }
+                if (!inv.runInTurn()) {
+                    // completes asynchronously, and will resubmit the mailbox when done
+                    return;
+                }
+                if (processed >= throughput || (deadline > 0 && System.nanoTime() - turnStart >= deadline)) {
+                    logger.debug("Yielding processing of message queue for {} after {} invocations", id, processed);
+                    executor.submit(this);
+                    return;
                 }
             }
         }
@@ -226,9 +690,10 @@ public class Dispatcher {
                         logger.debug("Stopping processing of message queue for {}", id);
                         return null;
                     }
-                } else {
+                } else if (inv.claim()) {
                     return inv;
                 }
+                // otherwise the invocation was cancelled while queued
             }
         }
 
@@ -238,6 +703,8 @@ public class Dispatcher {
          * @param inv
          */
         private void putBack(Invocation<?, ?> inv) {
+            depth.incrementAndGet();
+            inv.queued.set(true);
             queue.add(inv);
         }
 
@@ -254,9 +721,18 @@ public class Dispatcher {
             private final String entityId;
             private final FutureResponse<RS> result = new FutureResponse<>(this::cancelled);
             private int completedAttempts = 0;
-            private final ScheduledFuture<?> timeout;
+            private final Runnable timeout;
             private final Instant submission = Instant.now();
             private Instant executionStart;
+            /**
+             * Set while mailbox turn is invoking this, cleared by whichever comes first - the turn after invocation
+             * returned, or finish of the invocation.
+             */
+            private final AtomicBoolean runningInTurn = new AtomicBoolean();
+            /**
+             * Set when the invocation is added to the queue, cleared by {@link #claim()}.
+             */
+            private final AtomicBoolean queued = new AtomicBoolean();
 
             public Invocation(String entityId, R request) {
                 this.entityId = entityId;
@@ -267,7 +743,19 @@ public class Dispatcher {
             public Invocation(String entityId, R request, long timeout, TimeUnit unit) {
                 this.entityId = entityId;
                 this.request = request;
-                this.timeout = conf.schedulerService().schedule(this::timeout, timeout, unit);
+                this.timeout = schedule(this::timeout, timeout, unit);
+            }
+
+            /**
+             * Run the invocation within mailbox turn.
+             * @return true if the invocation finished synchronously, and the turn may continue with next invocation
+             */
+            boolean runInTurn() {
+                runningInTurn.set(true);
+                run();
+                // Quite often the request in fact completes synchronously and right after execute finishes we are
+                // already completed. In such case the turn spins another request, like Akka's dispatcher does.
+                return !runningInTurn.compareAndSet(true, false);
             }
 
             @Override
@@ -276,10 +764,6 @@ public class Dispatcher {
                     completedAttempts++;
                     executionStart = Instant.now();
                     conf.execute(entityId, request, this::handleCompletion);
-                    // There is a chance for probably not so rare situation, where the request in fact completes
-                    // synchronously and right after execute finishes we are already completed. In such case we could
-                    // spin another request if the previous one was not that slow. That's what Akka's dispatcher does,
-                    // but we're not going to complicate the matters here.
                 } else {
                     logger.info("Invocation attempted to run after it was cancelled: {}", this);
                     finish();
@@ -290,14 +774,51 @@ public class Dispatcher {
                 if (currentInvocation.compareAndSet(this,null)) {
                     executionStart = null;
                     result.stoppedExecuting();
-                    conf.executorService().submit(Mailbox.this);
+                    if (!runningInTurn.compareAndSet(true, false)) {
+                        // the turn that started the invocation is over
+                        executor.submit(Mailbox.this);
+                    }
                 } else {
                     logger.error("Invocation finished, but wasn't current invocation: {}", this);
                 }
             }
 
+            /**
+             * Claim the invocation from the queue. Cancelled invocation stays in the queue, as removing it would take
+             * linear time, and is skipped by whoever polls it.
+             * @return true if the invocation was in the queue and was not claimed by anyone else
+             */
+            boolean claim() {
+                if (queued.compareAndSet(true, false)) {
+                    depth.decrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+
             void cancelled() {
-                queue.remove(this);
+                claim();
+            }
+
+            void drop() {
+                // cancel might be racing with us
+                if (result.couldStart()) {
+                    logger.info("Invocation dropped due to mailbox overflow: {}", this);
+                    cancelTimeout();
+                    result.doCompleteExceptionally(MailboxOverflowException.dropped(entityId));
+                }
+            }
+
+            void reject(Throwable t) {
+                if (result.couldStart()) {
+                    fail(t);
+                }
+            }
+
+            void fail(Throwable t) {
+                logger.info("Invocation rejected: {}", this);
+                cancelTimeout();
+                result.doCompleteExceptionally(t);
             }
 
             void timeout() {
@@ -329,7 +850,7 @@ public class Dispatcher {
                     if (delay == 0) {
                         putBack(this);
                     } else if (delay > 0) {
-                        conf.schedulerService().schedule(() -> enqueueInvocation(this), delay, TimeUnit.MILLISECONDS);
+                        enqueueInvocationLater(this, delay, TimeUnit.MILLISECONDS);
                     } else {
                         cancelTimeout();
                         result.doCompleteExceptionally(unwrapCompletionException(throwable));
@@ -339,8 +860,8 @@ public class Dispatcher {
             }
 
             private void cancelTimeout() {
-                if (timeout != null && !timeout.isDone()) {
-                    timeout.cancel(false);
+                if (timeout != null) {
+                    timeout.run();
                 }
             }
 
@@ -70,4 +70,92 @@ public interface DispatcherConfiguration {
 
      */
     long retryDelay(String id, Request<?> request, Throwable t, int completedAttempts);
+
+    /**
+     * Maximum number of invocations a mailbox processes in single turn on an executor thread. As long as invocations
+     * of an entity complete synchronously, the mailbox continues with next queued invocation without resubmitting
+     * itself to the {@link #executorService()}. Value of {@code 1} hands every invocation over to the executor.
+     * @return maximum number of invocations per turn
+     * @see #throughputDeadline()
+     */
+    default int throughput() {
+        return 1;
+    }
+
+    /**
+     * Maximum duration of a mailbox turn. When it passes, the mailbox yields the executor thread after current
+     * invocation even if {@link #throughput()} was not reached.
+     * @return duration of a turn in milliseconds, zero or negative for no time limit
+     */
+    default long throughputDeadline() {
+        return 0;
+    }
+
+    /**
+     * Period of reclaiming mailboxes of idle entities. Dispatcher keeps a mailbox for every entity it has
+     * dispatched to, and without reclamation the number of mailboxes grows with every distinct entity id.
+     * @return period in milliseconds between reclamations, zero or negative to disable periodic reclamation
+     * @see Dispatcher#reclaimIdleMailboxes()
+     */
+    default long mailboxReclaimInterval() {
+        return 0;
+    }
+
+    /**
+     * Resolution of timing wheel handling timeouts, delayed invocations and retry backoff. When enabled, these are not
+     * scheduled on {@link #schedulerService()}, but on a {@link HashedTimingWheel} with constant cost of scheduling
+     * and cancellation. Timeouts then fire up to one tick late.
+     * @return duration of a tick in milliseconds, zero or negative to use scheduler service
+     * @see Dispatcher#shutdown()
+     */
+    default long timerTickDuration() {
+        return 0;
+    }
+
+    /**
+     * Run mailbox turns on virtual threads instead of {@link #executorService()}. Entities blocking on I/O then do
+     * not occupy platform threads, and the executor does not need to be sized for the number of blocked entities.
+     * Still only one request per entity is executed at a time.
+     * <p>Virtual threads require Java 21 runtime. On older runtimes {@link #executorService()} is used.</p>
+     * @return true to use virtual threads
+     * @see VirtualThreads
+     */
+    default boolean virtualThreads() {
+        return false;
+    }
+
+    /**
+     * Maximum number of invocations queued for single entity. Requests exceeding the capacity are handled according to
+     * {@link #overflowPolicy()}. Invocations scheduled for later execution and retries are not subject to this limit.
+     * @return capacity of a mailbox
+     * @see Dispatcher#getQueueDepth(String)
+     */
+    default int mailboxCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Maximum number of accepted invocations, that did not complete yet, over all entities of the dispatcher.
+     * Requests exceeding the capacity are handled according to {@link #overflowPolicy()}.
+     * @return maximum number of invocations in flight
+     */
+    default int maxInFlight() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * What to do with a request, that exceeds {@link #mailboxCapacity()} or {@link #maxInFlight()}.
+     * @return the overflow policy
+     */
+    default OverflowPolicy overflowPolicy() {
+        return OverflowPolicy.REJECT;
+    }
+
+    /**
+     * Maximum time a caller is blocked with {@link OverflowPolicy#BACKPRESSURE} before the request is rejected.
+     * @return timeout in milliseconds
+     */
+    default long backpressureTimeout() {
+        return 1000;
+    }
 }
@@ -0,0 +1,302 @@
+package io.github.goodees.ese.dispatch;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scheduler of delayed tasks with constant cost of scheduling and cancellation. Tasks are hashed into a ring of
+ * buckets by their deadline, and single worker thread advances over the ring once every tick, running the tasks
+ * which are due.
+ *
+ * <p>Tasks are executed up to one tick later than their deadline, never earlier. They run on the worker thread, and
+ * should therefore be short, as they delay the tasks following them.</p>
+ *
+ * <p>Scheduling and cancellation only append to a queue, which is drained by the worker at the start of next tick.
+ * Therefore they do not contend with each other, and cancelled tasks do not remain in the wheel until their deadline.
+ * </p>
+ * @see DispatcherConfiguration#timerTickDuration()
+ */
+public class HashedTimingWheel {
+    private static final Logger logger = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean stopped;
+    private volatile int pendingCount;
+    private long tick;
+
+    /**
+     * Create and start the timing wheel.
+     * @param name name of the worker thread
+     * @param tickDuration duration of a tick, resolution of the timer
+     * @param unit unit of tick duration
+     * @param wheelSize number of buckets in the wheel, rounded up to power of two
+     */
+    public HashedTimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive, got " + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Wheel size must be between 1 and 2^30, got " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.wheel = new Bucket[Math.max(size, 1)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedule task for execution after given delay.
+     * @param task the task to run
+     * @param delay delay of execution
+     * @param unit unit of delay
+     * @return handle for cancellation of the task
+     * @throws java.util.concurrent.RejectedExecutionException if the wheel was stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new RejectedExecutionException("Timing wheel " + worker.getName()
+                    + " was stopped");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+        scheduled.add(timeout);
+        // stop may have drained the queue before the task was added
+        if (stopped && scheduled.remove(timeout)) {
+            throw new RejectedExecutionException("Timing wheel " + worker.getName()
+                    + " was stopped");
+        }
+        return timeout;
+    }
+
+    /**
+     * Stop the worker thread, and wait for the task it is running to finish. Tasks that did not run yet are not
+     * executed by the wheel anymore, but are returned to the caller, who should run or fail them, so that nobody
+     * waits for them forever.
+     * @return tasks that were neither executed nor cancelled
+     */
+    public List<Runnable> stop() {
+        stopped = true;
+        if (Thread.currentThread() != worker) {
+            LockSupport.unpark(worker);
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // worker is not touching the buckets anymore, or it is the current thread
+        List<Runnable> unexecuted = new ArrayList<>();
+        for (Bucket bucket : wheel) {
+            for (Timeout timeout = bucket.head; timeout != null; timeout = timeout.next) {
+                timeout.drainTo(unexecuted);
+            }
+        }
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            timeout.drainTo(unexecuted);
+        }
+        return unexecuted;
+    }
+
+    /**
+     * Number of tasks in the wheel, that were neither executed, nor cancelled. Maintained by the worker thread, tasks
+     * scheduled or cancelled since the start of current tick are not reflected.
+     * @return number of pending tasks
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = (tick + 1) * tickNanos;
+            for (long sleep = deadline - (System.nanoTime() - startTime); sleep > 0 && !stopped;
+                 sleep = deadline - (System.nanoTime() - startTime)) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            if (stopped) {
+                return;
+            }
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        for (Timeout timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (timeout.state.get() != Timeout.PENDING) {
+                continue;
+            }
+            long deadlineTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            // deadlines that already passed go to current bucket
+            wheel[(int) (Math.max(deadlineTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public final class Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // following fields are only accessed by worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task, if it did not run yet.
+         * @return true if task was cancelled, false if it already run or was cancelled before
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                cancelled.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        void drainTo(List<Runnable> unexecuted) {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                unexecuted.add(task);
+            }
+        }
+
+        void expire() {
+            if (state.compareAndSet(PENDING, EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.error("Timed task {} failed", task, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, owned by worker thread.
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+            pendingCount++;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+            pendingCount--;
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
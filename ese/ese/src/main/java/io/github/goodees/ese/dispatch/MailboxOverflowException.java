@@ -0,0 +1,73 @@
+package io.github.goodees.ese.dispatch;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Request was not executed, because dispatcher's capacity was exceeded.
+ * @see OverflowPolicy
+ */
+public class MailboxOverflowException extends RejectedExecutionException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /**
+         * Mailbox of the entity reached its capacity.
+         */
+        MAILBOX_FULL,
+        /**
+         * Dispatcher reached maximum number of invocations in flight.
+         */
+        DISPATCHER_FULL,
+        /**
+         * The request was queued, but dropped to make room for newer one.
+         */
+        DROPPED
+    }
+
+    private final Reason reason;
+
+    protected MailboxOverflowException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public static MailboxOverflowException mailboxFull(String entityId, int capacity) {
+        return new MailboxOverflowException(Reason.MAILBOX_FULL,
+                "Mailbox of entity "+entityId+" reached its capacity of "+capacity);
+    }
+
+    public static MailboxOverflowException dispatcherFull(String dispatcherName, int capacity) {
+        return new MailboxOverflowException(Reason.DISPATCHER_FULL,
+                "Dispatcher "+dispatcherName+" reached "+capacity+" invocations in flight");
+    }
+
+    public static MailboxOverflowException dropped(String entityId) {
+        return new MailboxOverflowException(Reason.DROPPED,
+                "Request for entity "+entityId+" was dropped due to mailbox overflow");
+    }
+}
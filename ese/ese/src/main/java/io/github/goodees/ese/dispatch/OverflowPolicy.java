@@ -0,0 +1,46 @@
+package io.github.goodees.ese.dispatch;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * Handling of requests, that exceed capacity of a {@link Dispatcher}.
+ * @see DispatcherConfiguration#mailboxCapacity()
+ * @see DispatcherConfiguration#maxInFlight()
+ */
+public enum OverflowPolicy {
+    /**
+     * Complete the response of new request with {@link MailboxOverflowException} right away.
+     */
+    REJECT,
+    /**
+     * Complete the oldest queued request of the entity with {@link MailboxOverflowException} and accept the new one.
+     * When the dispatcher is at its limit, only queued requests of the same entity are considered. If there is nothing
+     * to drop, the new request is rejected.
+     */
+    DROP_OLDEST,
+    /**
+     * Block the calling thread until capacity frees up, or {@link DispatcherConfiguration#backpressureTimeout()}
+     * passes, after which the request is rejected. Should not be used when entities themselves send requests to the
+     * same dispatcher, as they would block executor threads, which are needed to free the capacity.
+     */
+    BACKPRESSURE
+}
@@ -0,0 +1,79 @@
+package io.github.goodees.ese.immutables;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.github.goodees.ese.EventType;
+
+import java.util.Map;
+
+/**
+ * Index of type ids of all {@link ImmutableEvent}s in a package, generated at build time by
+ * {@link EventTypeIndexProcessor} as class {@value #CLASS_NAME} in that package. Indexed event types are then resolved
+ * without class loader lookups, and events with duplicate type ids fail the build.
+ * @see ImmutableEventTypeResolver
+ */
+public abstract class EventTypeIndex {
+    /**
+     * Simple name of generated index class.
+     */
+    public static final String CLASS_NAME = "ImmutableEventIndex";
+
+    private static final ClassValue<String> TYPE_NAMES = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return EventType.fromClassStripping(type, "Immutable", "Event");
+        }
+    };
+
+    protected EventTypeIndex() {
+    }
+
+    /**
+     * Implementation classes of events by their type id.
+     * @return unmodifiable map of event types
+     */
+    public abstract Map<String, Class<? extends ImmutableEvent>> types();
+
+    /**
+     * Load generated index of a package.
+     * @param packageName package of the events
+     * @param classLoader class loader of the events
+     * @return the index, or null if none was generated for the package
+     */
+    public static EventTypeIndex forPackage(String packageName, ClassLoader classLoader) {
+        try {
+            Class<?> indexClass = Class.forName(packageName + "." + CLASS_NAME, true, classLoader);
+            return (EventTypeIndex) indexClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Cannot instantiate event type index of package " + packageName, e);
+        }
+    }
+
+    /**
+     * Type name of an event class, computed once per class.
+     * @see ImmutableEvent#getType()
+     */
+    static String typeName(Class<?> eventClass) {
+        return TYPE_NAMES.get(eventClass);
+    }
+}
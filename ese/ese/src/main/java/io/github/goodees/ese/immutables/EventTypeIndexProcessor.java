@@ -0,0 +1,141 @@
+package io.github.goodees.ese.immutables;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.github.goodees.ese.EventType;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates {@link EventTypeIndex} for every package with {@link ImmutableEvent}s annotated by
+ * {@code @Value.Immutable}. The index maps type id of every event to its implementation generated by Immutables, with
+ * default naming {@code Immutable*} of {@link ImmutablesSupport}.
+ * <p>Only top level event types are indexed. Two events with same type id in one package fail the build.</p>
+ */
+public class EventTypeIndexProcessor extends AbstractProcessor {
+    private static final String IMMUTABLE_ANNOTATION = "org.immutables.value.Value.Immutable";
+
+    private final Set<String> generatedPackages = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(IMMUTABLE_ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement immutable = processingEnv.getElementUtils().getTypeElement(IMMUTABLE_ANNOTATION);
+        TypeElement immutableEvent = processingEnv.getElementUtils().getTypeElement(ImmutableEvent.class.getName());
+        if (immutable == null || immutableEvent == null) {
+            return false;
+        }
+        TypeMirror eventType = processingEnv.getTypeUtils().erasure(immutableEvent.asType());
+        Map<String, Map<String, TypeElement>> packages = new TreeMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(immutable)) {
+            if (!isTopLevelEvent(element, eventType)) {
+                continue;
+            }
+            TypeElement event = (TypeElement) element;
+            String packageName = ((PackageElement) event.getEnclosingElement()).getQualifiedName().toString();
+            String typeId = EventType.fromSimpleClassnameStripping(implementationName(event), "Immutable", "Event");
+            TypeElement previous = packages.computeIfAbsent(packageName, p -> new TreeMap<>()).put(typeId, event);
+            if (previous != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Event type " + typeId
+                        + " is already used by " + previous.getQualifiedName(), event);
+            }
+        }
+        packages.forEach(this::generateIndex);
+        return false;
+    }
+
+    private boolean isTopLevelEvent(Element element, TypeMirror eventType) {
+        return (element.getKind() == ElementKind.INTERFACE || element.getKind() == ElementKind.CLASS)
+                && element.getEnclosingElement().getKind() == ElementKind.PACKAGE
+                && processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(element.asType()),
+                    eventType);
+    }
+
+    private static String implementationName(TypeElement event) {
+        return "Immutable" + event.getSimpleName();
+    }
+
+    private void generateIndex(String packageName, Map<String, TypeElement> events) {
+        if (!generatedPackages.add(packageName)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Events of package " + packageName
+                    + " are generated in multiple rounds, and cannot be indexed", events.values().iterator().next());
+            return;
+        }
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+                packageName + "." + EventTypeIndex.CLASS_NAME, events.values().toArray(new Element[0]))
+                .openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("import io.github.goodees.ese.immutables.EventTypeIndex;");
+            out.println("import io.github.goodees.ese.immutables.ImmutableEvent;");
+            out.println("import java.util.Collections;");
+            out.println("import java.util.HashMap;");
+            out.println("import java.util.Map;");
+            out.println();
+            out.println("/**");
+            out.println(" * Event types of package " + packageName + ", generated by "
+                    + EventTypeIndexProcessor.class.getName() + ".");
+            out.println(" */");
+            out.println("public final class " + EventTypeIndex.CLASS_NAME + " extends EventTypeIndex {");
+            out.println("    private static final Map<String, Class<? extends ImmutableEvent>> TYPES;");
+            out.println();
+            out.println("    static {");
+            out.println("        Map<String, Class<? extends ImmutableEvent>> types = new HashMap<>();");
+            events.forEach((typeId, event) -> out.println("        types.put(\"" + typeId + "\", "
+                    + implementationName(event) + ".class);"));
+            out.println("        TYPES = Collections.unmodifiableMap(types);");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Map<String, Class<? extends ImmutableEvent>> types() {");
+            out.println("        return TYPES;");
+            out.println("    }");
+            out.println("}");
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot generate event type index of "
+                    + packageName + ": " + e.getMessage());
+        }
+    }
+}
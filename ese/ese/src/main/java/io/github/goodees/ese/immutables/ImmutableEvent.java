@@ -25,7 +25,6 @@ import com.fasterxml.jackson.databind.annotation.JsonTypeIdResolver;
 import io.github.goodees.ese.Event;
 import io.github.goodees.ese.EventHeader;
 import io.github.goodees.ese.EventSourcedEntity;
-import io.github.goodees.ese.EventType;
 import java.util.function.Function;
 import org.immutables.value.Value;
 
@@ -51,7 +50,7 @@ public interface ImmutableEvent extends Event {
     @JsonIgnore
     // type property is written by resolver, and is requires default naming scheme
     default String getType() {
-        return EventType.fromClassStripping(getClass(), "Immutable", "Event");
+        return EventTypeIndex.typeName(getClass());
     }
 
     static <T> T builderForEntity(EventSourcedEntity entity, Function<Event, T> buildFromEvent) {
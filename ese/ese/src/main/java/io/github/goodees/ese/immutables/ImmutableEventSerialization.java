@@ -0,0 +1,178 @@
+package io.github.goodees.ese.immutables;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.github.goodees.ese.EventType;
+import io.github.goodees.ese.store.BinarySerialization;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JSON serialization of entity's {@link ImmutableEvent}s. Readers and writers are built once, reader of every event
+ * type is cached by the type stored alongside the payload, so that replay does not resolve event classes for every
+ * event. Payload is written and read as UTF-8 bytes directly by binary stores, Jackson recycles its buffers per thread.
+ * <p>Event types can be registered upfront by {@link #register(Class[])}. Types of generated {@link EventTypeIndex}
+ * are registered on creation. Other types are resolved on first use.</p>
+ * @param <E> base class of entity's events
+ */
+public class ImmutableEventSerialization<E extends ImmutableEvent> implements BinarySerialization<E> {
+    private final Class<E> baseType;
+    private final int payloadVersion;
+    private final ObjectMapper mapper;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final ImmutableEventTypeResolver typeResolver = new ImmutableEventTypeResolver();
+    private final ConcurrentMap<String, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    /**
+     * Create serialization with mapper supporting Java 8 types and ISO timestamps.
+     * @param baseType base class of events
+     */
+    public ImmutableEventSerialization(Class<E> baseType) {
+        this(createMapper(), baseType, 1);
+    }
+
+    /**
+     * Create serialization with provided mapper.
+     * @param mapper configured object mapper, that is not changed afterwards
+     * @param baseType base class of events
+     * @param payloadVersion payload version of the events
+     */
+    public ImmutableEventSerialization(ObjectMapper mapper, Class<E> baseType, int payloadVersion) {
+        this.mapper = mapper;
+        this.baseType = baseType;
+        this.payloadVersion = payloadVersion;
+        this.reader = mapper.readerFor(baseType);
+        this.writer = mapper.writerFor(baseType);
+        this.typeResolver.init(mapper.constructType(baseType));
+        String baseName = baseType.getName();
+        EventTypeIndex index = EventTypeIndex.forPackage(baseName.substring(0, baseName.lastIndexOf('.')),
+            baseType.getClassLoader());
+        if (index != null) {
+            index.types().forEach((type, eventClass) -> readers.put(type, mapper.readerFor(eventClass)));
+        }
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModules(new Jdk8Module(), new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return mapper;
+    }
+
+    /**
+     * Resolve readers of given event types upfront, e. g. at application startup.
+     * @param eventTypes event classes, or their immutable implementations
+     * @return this serialization
+     */
+    @SafeVarargs
+    public final ImmutableEventSerialization<E> register(Class<? extends E>... eventTypes) {
+        for (Class<? extends E> eventType : eventTypes) {
+            readers.putIfAbsent(EventType.fromClassStripping(eventType, "Immutable", "Event"),
+                mapper.readerFor(eventType));
+        }
+        return this;
+    }
+
+    @Override
+    public int payloadVersion(E object) {
+        return payloadVersion;
+    }
+
+    @Override
+    public E toSerializable(Object o) {
+        return baseType.isInstance(o) ? baseType.cast(o) : null;
+    }
+
+    @Override
+    public byte[] serializeBinary(E object) {
+        try {
+            return writer.writeValueAsBytes(object);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serialize event " + object, e);
+        }
+    }
+
+    /**
+     * Deserialize the event.
+     * @return the event, or null if the type is not known, e. g. when it was written by newer version of application
+     */
+    @Override
+    public E deserializeBinary(int payloadVersion, byte[] payload, String type) {
+        ObjectReader typeReader = readerFor(type);
+        if (typeReader == null) {
+            return null;
+        }
+        try {
+            return typeReader.readValue(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot deserialize event of type " + type, e);
+        }
+    }
+
+    @Override
+    public String serialize(E object) {
+        return new String(serializeBinary(object), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deserialize the event.
+     * @return the event, or null if the type is not known, e. g. when it was written by newer version of application
+     */
+    @Override
+    public E deserialize(int payloadVersion, String payload, String type) {
+        ObjectReader typeReader = readerFor(type);
+        if (typeReader == null) {
+            return null;
+        }
+        try {
+            return typeReader.readValue(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot deserialize event of type " + type, e);
+        }
+    }
+
+    private ObjectReader readerFor(String type) {
+        if (type == null) {
+            return reader;
+        }
+        ObjectReader typeReader = readers.get(type);
+        if (typeReader == null) {
+            try {
+                typeReader = mapper.readerFor(typeResolver.typeFromId(type, mapper.getTypeFactory()));
+            } catch (IllegalStateException e) {
+                return null;
+            }
+            readers.putIfAbsent(type, typeReader);
+        }
+        return typeReader;
+    }
+}
@@ -27,6 +27,8 @@ import com.fasterxml.jackson.databind.jsontype.impl.TypeIdResolverBase;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import io.github.goodees.ese.Event;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Automatic JSON event type names and their instantiation for ImmutableEvent descendants.
@@ -38,6 +40,10 @@ import java.io.IOException;
  * <li>All events have suffix Event</li>
  * </ul>
  * 
+ * Resolved types are cached, so that event class is looked up by class loader only once per type id. When the package
+ * has {@link EventTypeIndex} generated, event classes are taken from it instead. Ids not present in the index, e. g.
+ * because incremental build only indexed changed events, are still resolved by the convention.
+ * 
  * @see ImmutableEvent#getType()
  */
 public class ImmutableEventTypeResolver extends TypeIdResolverBase {
@@ -45,11 +51,19 @@ public class ImmutableEventTypeResolver extends TypeIdResolverBase {
     private final static String SUFFIX = "Event";
 
     private String basePackage;
+    private EventTypeIndex index;
+    private final ConcurrentMap<String, JavaType> types = new ConcurrentHashMap<>();
 
     @Override
     public void init(JavaType bt) {
         String className = bt.getRawClass().getName();
-        this.basePackage = className.substring(0, className.lastIndexOf("."));
+        String basePackage = className.substring(0, className.lastIndexOf("."));
+        init(basePackage, EventTypeIndex.forPackage(basePackage, bt.getRawClass().getClassLoader()));
+    }
+
+    void init(String basePackage, EventTypeIndex index) {
+        this.basePackage = basePackage;
+        this.index = index;
     }
 
     @Override
@@ -59,6 +73,19 @@ public class ImmutableEventTypeResolver extends TypeIdResolverBase {
     }
 
     JavaType typeFromId(String id, TypeFactory typeFactory) throws IllegalStateException {
+        JavaType type = types.get(id);
+        if (type == null) {
+            type = findType(id, typeFactory);
+            types.putIfAbsent(id, type);
+        }
+        return type;
+    }
+
+    private JavaType findType(String id, TypeFactory typeFactory) throws IllegalStateException {
+        Class<? extends ImmutableEvent> eventClass = index != null ? index.types().get(id) : null;
+        if (eventClass != null) {
+            return typeFactory.constructType(eventClass);
+        }
         String className = basePackage + "." + generateClassName(id);
         try {
             return typeFactory.constructType(typeFactory.findClass(className));
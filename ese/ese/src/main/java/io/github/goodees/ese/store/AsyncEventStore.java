@@ -0,0 +1,53 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.github.goodees.ese.Event;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Event store, that can persist events without blocking the caller. {@link io.github.goodees.ese.AsyncEntity} uses
+ * it instead of synchronous persist, so that asynchronous runtimes do not block their executor on persistence.
+ * <p>Same guarantees as for {@link EventStore#persist(Iterable)} apply once the returned stage completes successfully.
+ * Dependent stages may be executed by the thread, that completed the persistence.</p>
+ */
+public interface AsyncEventStore extends EventStore {
+
+    /**
+     * Persist events asynchronously.
+     * @param events events to store
+     * @return stage completing when events are stored, or exceptionally with {@link EventStoreException} when
+     *     storing fails, or if the entity was out of date
+     */
+    CompletionStage<Void> persistAsync(Iterable<? extends Event> events);
+
+    /**
+     * Persist events asynchronously.
+     * @param events events to store
+     * @return stage completing when events are stored
+     * @see #persistAsync(Iterable)
+     */
+    default CompletionStage<Void> persistAsync(Event... events) {
+        return persistAsync(Arrays.asList(events));
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Serializes and stores snapshots in background, so that requests do not wait for it. The snapshots are queued per
+ * entity. When a newer snapshot of an entity is submitted while older one is still queued, only the newer one is
+ * written.
+ * <p>Snapshots are written by single task at a time on provided executor. Snapshot objects must not change after they
+ * were created by the entity, as they are serialized outside of its invocation.</p>
+ * @see io.github.goodees.ese.EventSourcingRuntimeBase#getSnapshotWriter()
+ */
+public class AsyncSnapshotWriter {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncSnapshotWriter.class);
+
+    private final SnapshotStore<?> store;
+    private final Executor executor;
+    private final int capacity;
+    private final ConcurrentMap<String, PendingSnapshot> pending = new ConcurrentHashMap<>();
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+
+    /**
+     * Create the writer.
+     * @param store snapshot store to write to
+     * @param executor executor to write snapshots on
+     * @param capacity maximum number of entities with queued snapshot
+     */
+    public AsyncSnapshotWriter(SnapshotStore<?> store, Executor executor, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.store = store;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queue a snapshot for writing.
+     * @param entityId the identity of the entity
+     * @param stateVersion version of the entity when snapshot was created
+     * @param snapshot snapshot returned from {@link io.github.goodees.ese.EventSourcedEntity#createSnapshot()}
+     * @return false if the queue is full and snapshot will not be written
+     */
+    public boolean submit(String entityId, long stateVersion, Object snapshot) {
+        return submit(entityId, stateVersion, snapshot, null);
+    }
+
+    /**
+     * Queue a snapshot for writing, and get notified about the time its write took, e. g. to feed
+     * {@link io.github.goodees.ese.AdaptiveSnapshotPolicy#recordSnapshotWrite(long)}.
+     * @param entityId the identity of the entity
+     * @param stateVersion version of the entity when snapshot was created
+     * @param snapshot snapshot returned from {@link io.github.goodees.ese.EventSourcedEntity#createSnapshot()}
+     * @param onWritten receives nanoseconds it took to serialize and store the snapshot, when it was stored. Not
+     *                  called when the snapshot is replaced by newer one before it is written. May be null.
+     * @return false if the queue is full and snapshot will not be written
+     */
+    public boolean submit(String entityId, long stateVersion, Object snapshot, LongConsumer onWritten) {
+        PendingSnapshot next = new PendingSnapshot(stateVersion, snapshot, onWritten);
+        while (true) {
+            PendingSnapshot current = pending.get(entityId);
+            if (current != null) {
+                if (current.stateVersion >= stateVersion || pending.replace(entityId, current, next)) {
+                    coalesced.incrementAndGet();
+                    return true;
+                }
+            } else if (!reserve()) {
+                rejected.incrementAndGet();
+                logger.debug("Snapshot queue full, skipping snapshot of {} at version {}", entityId, stateVersion);
+                return false;
+            } else if (pending.putIfAbsent(entityId, next) == null) {
+                queue.add(entityId);
+                scheduleDrain();
+                return true;
+            } else {
+                depth.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = depth.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (depth.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                logger.warn("Snapshot writer could not be scheduled, {} snapshots stay queued", depth.get(), e);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (String entityId = queue.poll(); entityId != null; entityId = queue.poll()) {
+                write(entityId);
+            }
+        } finally {
+            draining.set(false);
+        }
+        // a snapshot might have been queued after last poll, while we were still draining
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void write(String entityId) {
+        PendingSnapshot snapshot = pending.remove(entityId);
+        if (snapshot == null) {
+            return;
+        }
+        depth.decrementAndGet();
+        long start = System.nanoTime();
+        boolean stored = store.store(entityId, snapshot.stateVersion, snapshot.snapshot);
+        long duration = System.nanoTime() - start;
+        if (stored) {
+            written.incrementAndGet();
+            if (snapshot.onWritten != null) {
+                snapshot.onWritten.accept(duration);
+            }
+        } else {
+            failed.incrementAndGet();
+        }
+        totalWriteNanos.addAndGet(duration);
+        maxWriteNanos.accumulateAndGet(duration, Math::max);
+    }
+
+    /**
+     * Wait until all queued snapshots are written.
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return true if the queue is empty
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (depth.get() > 0 || draining.get()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Number of entities with queued snapshot.
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Number of snapshots successfully written.
+     * @return written snapshots
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Number of snapshots that failed to serialize or store.
+     * @return failed snapshots
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Number of snapshots, that replaced queued snapshot of the same entity, or were older than it.
+     * @return coalesced snapshots
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Number of snapshots not written because the queue was full.
+     * @return rejected snapshots
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Average time to serialize and store a snapshot.
+     * @param unit unit of the result
+     * @return average write latency, zero if nothing was written yet
+     */
+    public long getAverageWriteLatency(TimeUnit unit) {
+        long writes = written.get() + failed.get();
+        return writes == 0 ? 0 : unit.convert(totalWriteNanos.get() / writes, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Maximum time it took to serialize and store a snapshot.
+     * @param unit unit of the result
+     * @return maximum write latency
+     */
+    public long getMaxWriteLatency(TimeUnit unit) {
+        return unit.convert(maxWriteNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private static final class PendingSnapshot {
+        private final long stateVersion;
+        private final Object snapshot;
+        private final LongConsumer onWritten;
+
+        PendingSnapshot(long stateVersion, Object snapshot, LongConsumer onWritten) {
+            this.stateVersion = stateVersion;
+            this.snapshot = snapshot;
+            this.onWritten = onWritten;
+        }
+    }
+}
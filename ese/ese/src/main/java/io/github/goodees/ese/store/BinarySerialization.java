@@ -0,0 +1,108 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Serialization into binary payload, e. g. for binary encodings like CBOR or Smile. Stores supporting binary payloads
+ * use {@link #serializeBinary(Object)} and {@link #deserializeBinary(int, byte[], String)}, and avoid intermediate
+ * String representation of the payload.
+ * <p>Stores of String payloads use Base64 encoding of the binary payload.</p>
+ * @see io.github.goodees.ese.store.jdbc.BinaryJdbcSchema
+ */
+public interface BinarySerialization<T> extends Serialization<T> {
+
+    /**
+     * Serialize the object into binary payload.
+     * @param object object to serialize
+     * @return binary serialization of the object
+     */
+    byte[] serializeBinary(T object);
+
+    /**
+     * Deserialize binary payload given its version.
+     * @param payloadVersion the version of the payload as stored in the store
+     * @param payload payload to deserialize
+     * @param type a type discriminator if supported by underlying storage, <code>null</code> otherwise
+     * @return deserialized object or null
+     * @see Serialization#deserialize(int, String, String)
+     */
+    T deserializeBinary(int payloadVersion, byte[] payload, String type);
+
+    @Override
+    default String serialize(T object) {
+        byte[] payload = serializeBinary(object);
+        return payload == null ? null : Base64.getEncoder().encodeToString(payload);
+    }
+
+    @Override
+    default T deserialize(int payloadVersion, String payload, String type) {
+        return deserializeBinary(payloadVersion, payload == null ? null : Base64.getDecoder().decode(payload), type);
+    }
+
+    /**
+     * Adapt serialization for store of binary payloads. String payloads are encoded in UTF-8, so that textual formats
+     * like JSON can be stored in binary columns as well.
+     * @param serialization the serialization
+     * @param <T> type of serialized objects
+     * @return the serialization itself if it is binary, otherwise an adapter of it
+     */
+    static <T> BinarySerialization<T> of(Serialization<T> serialization) {
+        if (serialization instanceof BinarySerialization) {
+            return (BinarySerialization<T>) serialization;
+        }
+        return new BinarySerialization<T>() {
+            @Override
+            public byte[] serializeBinary(T object) {
+                String payload = serialization.serialize(object);
+                return payload == null ? null : payload.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public T deserializeBinary(int payloadVersion, byte[] payload, String type) {
+                return serialization.deserialize(payloadVersion,
+                    payload == null ? null : new String(payload, StandardCharsets.UTF_8), type);
+            }
+
+            @Override
+            public String serialize(T object) {
+                return serialization.serialize(object);
+            }
+
+            @Override
+            public T deserialize(int payloadVersion, String payload, String type) {
+                return serialization.deserialize(payloadVersion, payload, type);
+            }
+
+            @Override
+            public int payloadVersion(T object) {
+                return serialization.payloadVersion(object);
+            }
+
+            @Override
+            public T toSerializable(Object o) {
+                return serialization.toSerializable(o);
+            }
+        };
+    }
+}
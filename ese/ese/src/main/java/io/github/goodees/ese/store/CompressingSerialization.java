@@ -0,0 +1,162 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialization compressing large payloads of another serialization. Payloads of at least {@code threshold} bytes are
+ * compressed by GZIP at fastest level, smaller ones are stored as they are. Payload version is the one of the
+ * delegate.
+ * <p>Compressed payloads are recognized by GZIP header, so stores may contain mix of compressed and uncompressed
+ * payloads, e. g. written before compression was introduced. Binary payloads of the delegate must therefore not start
+ * with bytes {@code 1f 8b}, which does not happen for textual formats like JSON. Stores of String payloads receive
+ * compressed payload in Base64, that always starts with {@code H4sI}.</p>
+ */
+public class CompressingSerialization<T> implements BinarySerialization<T> {
+    private static final String BASE64_GZIP_PREFIX = "H4sI";
+
+    private final Serialization<T> delegate;
+    private final BinarySerialization<T> binaryDelegate;
+    private final int threshold;
+
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /**
+     * Create the serialization.
+     * @param delegate serialization of the objects
+     * @param threshold minimal size of payload in bytes to be compressed
+     */
+    public CompressingSerialization(Serialization<T> delegate, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative, got " + threshold);
+        }
+        this.delegate = delegate;
+        this.binaryDelegate = BinarySerialization.of(delegate);
+        this.threshold = threshold;
+    }
+
+    @Override
+    public int payloadVersion(T object) {
+        return delegate.payloadVersion(object);
+    }
+
+    @Override
+    public T toSerializable(Object o) {
+        return delegate.toSerializable(o);
+    }
+
+    @Override
+    public byte[] serializeBinary(T object) {
+        byte[] payload = binaryDelegate.serializeBinary(object);
+        return payload == null || payload.length < threshold ? payload : compress(payload);
+    }
+
+    @Override
+    public T deserializeBinary(int payloadVersion, byte[] payload, String type) {
+        return binaryDelegate.deserializeBinary(payloadVersion, isCompressed(payload) ? decompress(payload) : payload,
+            type);
+    }
+
+    @Override
+    public String serialize(T object) {
+        String payload = delegate.serialize(object);
+        if (payload == null || payload.length() < threshold) {
+            return payload;
+        }
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return bytes.length < threshold ? payload : Base64.getEncoder().encodeToString(compress(bytes));
+    }
+
+    @Override
+    public T deserialize(int payloadVersion, String payload, String type) {
+        if (payload != null && payload.startsWith(BASE64_GZIP_PREFIX)) {
+            byte[] bytes = decompress(Base64.getDecoder().decode(payload));
+            return delegate.deserialize(payloadVersion, new String(bytes, StandardCharsets.UTF_8), type);
+        }
+        return delegate.deserialize(payloadVersion, payload, type);
+    }
+
+    private static boolean isCompressed(byte[] payload) {
+        return payload != null && payload.length >= 2 && payload[0] == (byte) (GZIPInputStream.GZIP_MAGIC)
+                && payload[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    private byte[] compress(byte[] payload) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(payload.length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(result, 8192) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        }) {
+            gzip.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = result.toByteArray();
+        compressed.incrementAndGet();
+        uncompressedBytes.addAndGet(payload.length);
+        compressedBytes.addAndGet(bytes.length);
+        return bytes;
+    }
+
+    private static byte[] decompress(byte[] payload) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(payload.length * 4);
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(payload), 8192)) {
+            byte[] buffer = new byte[8192];
+            for (int read = gzip.read(buffer); read >= 0; read = gzip.read(buffer)) {
+                result.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Number of payloads compressed.
+     * @return compressed payloads
+     */
+    public long getCompressedCount() {
+        return compressed.get();
+    }
+
+    /**
+     * Size of compressed payloads relative to their original size.
+     * @return compression ratio, 1 if nothing was compressed yet
+     */
+    public double getCompressionRatio() {
+        long original = uncompressedBytes.get();
+        return original == 0 ? 1 : (double) compressedBytes.get() / original;
+    }
+}
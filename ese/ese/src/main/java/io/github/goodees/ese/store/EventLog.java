@@ -24,6 +24,8 @@ import io.github.goodees.ese.Event;
 import io.github.goodees.ese.EventSourcedEntity;
 import io.github.goodees.ese.EventSourcingRuntimeBase;
 
+import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
@@ -50,6 +52,22 @@ public interface EventLog {
      */
     boolean confirmsEntityReflectsCurrentState(EventSourcedEntity entity);
 
+    /**
+     * Read events of multiple entities. Consumer is called once for every requested entity, with events of that
+     * entity, even when there are none. Events are only valid within the call of consumer, and consumer need not close
+     * them. Default implementation reads entities one by one, implementations may read them in fewer round trips.
+     * @param afterVersions identities of entities, with version to read events after, as in {@link #readEvents(String, long)}
+     * @param consumer consumer of events of single entity
+     */
+    default void readEvents(Map<String, Long> afterVersions,
+            BiConsumer<String, StoredEvents<? extends Event>> consumer) {
+        afterVersions.forEach((entityId, afterVersion) -> {
+            try (StoredEvents<? extends Event> events = readEvents(entityId, afterVersion)) {
+                consumer.accept(entityId, events);
+            }
+        });
+    }
+
     /**
      * Accessor that enables single iteration over found events.
      * The underlying idea is, that the events needs not to be materialized at once, rather it could for example wrap a JDBC
@@ -0,0 +1,82 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.github.goodees.ese.Event;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous view of a blocking event store. Events are persisted by the delegate on a dedicated I/O executor, so
+ * that the executor of asynchronous runtime is free while waiting for the database.
+ * <p>The I/O executor must not be the one the runtime executes entities on. Its size bounds number of concurrent
+ * persists.</p>
+ */
+public class ExecutorAsyncEventStore implements AsyncEventStore {
+    private final EventStore delegate;
+    private final Executor ioExecutor;
+
+    /**
+     * Create the store.
+     * @param delegate event store to persist with
+     * @param ioExecutor executor to run blocking persists on
+     */
+    public ExecutorAsyncEventStore(EventStore delegate, Executor ioExecutor) {
+        this.delegate = delegate;
+        this.ioExecutor = ioExecutor;
+    }
+
+    @Override
+    public CompletionStage<Void> persistAsync(Iterable<? extends Event> events) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    delegate.persist(events);
+                    result.complete(null);
+                } catch (EventStoreException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void persist(Event event) throws EventStoreException {
+        delegate.persist(event);
+    }
+
+    @Override
+    public void persist(Event... events) throws EventStoreException {
+        delegate.persist(events);
+    }
+
+    @Override
+    public void persist(Iterable<? extends Event> events) throws EventStoreException {
+        delegate.persist(events);
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Upcaster of JSON object payloads by renaming, removing and adding top-level properties. The payload is copied in
+ * single pass over its tokens, without building a tree of it.
+ * <p>Upcasters of consecutive payload versions are fused by {@link #andThen(JsonUpcaster)}, so the whole chain still
+ * takes a single pass. Added properties are written at the end of the object and their values must be simple JSON
+ * values &mdash; strings, numbers, booleans or {@code null}.</p>
+ */
+public class JsonUpcaster implements Upcaster {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final List<Operation> operations = new ArrayList<>();
+    private volatile Plan plan;
+
+    public static JsonUpcaster create() {
+        return new JsonUpcaster();
+    }
+
+    /**
+     * Rename a property.
+     * @param from current name of the property
+     * @param to new name of the property, replaces existing property of that name
+     * @return this upcaster
+     */
+    public JsonUpcaster rename(String from, String to) {
+        return add(new Operation(Operation.RENAME, from, to, null));
+    }
+
+    /**
+     * Remove a property.
+     * @param name name of the property
+     * @return this upcaster
+     */
+    public JsonUpcaster remove(String name) {
+        return add(new Operation(Operation.REMOVE, name, null, null));
+    }
+
+    /**
+     * Add a property with constant value.
+     * @param name name of the property, replaces existing property of that name
+     * @param value simple JSON value of the property
+     * @return this upcaster
+     */
+    public JsonUpcaster add(String name, Object value) {
+        return add(new Operation(Operation.ADD, name, null, value));
+    }
+
+    /**
+     * Compose with upcaster of the next payload version.
+     * @param next upcaster applied to result of this one
+     * @return new upcaster doing both transformations in single pass
+     */
+    public JsonUpcaster andThen(JsonUpcaster next) {
+        JsonUpcaster result = new JsonUpcaster();
+        result.operations.addAll(operations);
+        result.operations.addAll(next.operations);
+        return result;
+    }
+
+    private JsonUpcaster add(Operation operation) {
+        operations.add(operation);
+        plan = null;
+        return this;
+    }
+
+    @Override
+    public String upcast(String payload) {
+        Plan plan = plan();
+        StringWriter out = new StringWriter(payload.length() + 16);
+        try (JsonParser parser = JSON.createParser(payload);
+                JsonGenerator generator = JSON.createGenerator(out)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Payload is not a JSON object: " + payload);
+            }
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (plan.removed.contains(name)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                String target = plan.renames.get(name);
+                generator.writeFieldName(target != null ? target : name);
+                generator.copyCurrentStructure(parser);
+            }
+            for (Map.Entry<String, Object> added : plan.added.entrySet()) {
+                generator.writeFieldName(added.getKey());
+                generator.writeObject(added.getValue());
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot upcast payload", e);
+        }
+        return out.toString();
+    }
+
+    private Plan plan() {
+        Plan result = plan;
+        if (result == null) {
+            result = new Plan(operations);
+            plan = result;
+        }
+        return result;
+    }
+
+    private static class Operation {
+        static final int RENAME = 0;
+        static final int REMOVE = 1;
+        static final int ADD = 2;
+
+        final int kind;
+        final String name;
+        final String target;
+        final Object value;
+
+        Operation(int kind, String name, String target, Object value) {
+            this.kind = kind;
+            this.name = name;
+            this.target = target;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Net effect of the operations on properties of the original payload.
+     */
+    private static class Plan {
+        final Map<String, String> renames = new HashMap<>();
+        final Set<String> removed = new HashSet<>();
+        final Map<String, Object> added = new LinkedHashMap<>();
+
+        Plan(List<Operation> operations) {
+            // properties touched by the operations, by their current name. The value is the original name of the
+            // property, or Operation carrying the added value
+            Map<String, Object> current = new LinkedHashMap<>();
+            // original properties that no longer appear under their name
+            Set<String> consumed = new HashSet<>();
+            for (Operation operation : operations) {
+                Object source = current.containsKey(operation.name) ? current.remove(operation.name) : operation.name;
+                consume(current, consumed, operation.name);
+                switch (operation.kind) {
+                    case Operation.RENAME:
+                        consume(current, consumed, operation.target);
+                        current.put(operation.target, source);
+                        break;
+                    case Operation.ADD:
+                        current.put(operation.name, operation);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            for (Map.Entry<String, Object> property : current.entrySet()) {
+                if (property.getValue() instanceof Operation) {
+                    added.put(property.getKey(), ((Operation) property.getValue()).value);
+                } else if (!property.getKey().equals(property.getValue())) {
+                    renames.put((String) property.getValue(), property.getKey());
+                } else {
+                    consumed.remove(property.getKey());
+                }
+            }
+            consumed.removeAll(renames.keySet());
+            removed.addAll(consumed);
+        }
+
+        private static void consume(Map<String, Object> current, Set<String> consumed, String name) {
+            if (!current.containsKey(name)) {
+                consumed.add(name);
+            }
+            current.remove(name);
+        }
+    }
+}
@@ -20,6 +20,11 @@ package io.github.goodees.ese.store;
  * #L%
  */
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.goodees.ese.Event;
@@ -51,6 +56,16 @@ public abstract class SnapshotStore<P> {
         void startRecovery(EventSourcedEntity entity);
 
         void finishRecover(EventSourcedEntity entity);
+
+        /**
+         * Notification about finished recovery, e. g. to measure replay cost.
+         * @param entity recovered entity
+         * @param replayedEvents number of replayed events
+         * @param nanos duration of iterating and replaying the events, not including restoring the snapshot, nor
+         *              the query of the events, so that it grows with number of events
+         */
+        default void recovered(EventSourcedEntity entity, int replayedEvents, long nanos) {
+        }
     }
 
     /**
@@ -62,9 +77,51 @@ public abstract class SnapshotStore<P> {
      * @return number of events recovered.
      */
     public int recover(EventSourcedEntity entity, EventLog eventLog, EntityStateHandler handler) {
+        return recover(entity, eventLog, handler, retrieveSnapshotRecord(entity.getIdentity()));
+    }
+
+    /**
+     * Recover multiple entities. Snapshots of all entities are retrieved at once by
+     * {@link #retrieveSnapshotRecords(Collection)}, and events past them by
+     * {@link EventLog#readEvents(Map, java.util.function.BiConsumer)}, so that stores can load many entities in few
+     * round trips. Failure to recover one entity does not stop recovery of the others.
+     *
+     * @param entities entities to recover
+     * @param eventLog implementation of event log that will provide remaining events
+     * @param handler  access to entities' state
+     * @return exceptions of entities that failed to recover, by entity id. Empty when all entities recovered.
+     */
+    public Map<String, Exception> recoverAll(Collection<? extends EventSourcedEntity> entities, EventLog eventLog,
+            EntityStateHandler handler) {
         long recoveryStart = System.currentTimeMillis();
+        Map<String, EventSourcedEntity> byId = new LinkedHashMap<>();
+        entities.forEach(entity -> byId.put(entity.getIdentity(), entity));
+        Map<String, SnapshotRecord> snapshotRecords = retrieveSnapshotRecords(byId.keySet());
+        Map<String, Exception> failures = new HashMap<>();
+        Map<String, Long> afterVersions = new LinkedHashMap<>();
+        byId.forEach((entityId, entity) -> {
+            try {
+                restoreSnapshot(entity, handler, snapshotRecords.get(entityId));
+                afterVersions.put(entityId, entity.getStateVersion());
+            } catch (Exception e) {
+                failures.put(entityId, e);
+            }
+        });
+        AtomicInteger recoveredEventsCount = new AtomicInteger();
+        eventLog.readEvents(afterVersions, (entityId, events) -> {
+            try {
+                recoveredEventsCount.addAndGet(replayEvents(byId.get(entityId), events, handler));
+            } catch (Exception e) {
+                failures.put(entityId, e);
+            }
+        });
+        logger.info("{} entities recovered in {} ms replaying {} events", byId.size() - failures.size(),
+                System.currentTimeMillis() - recoveryStart, recoveredEventsCount.get());
+        return failures;
+    }
+
+    private void restoreSnapshot(EventSourcedEntity entity, EntityStateHandler handler, SnapshotRecord snapshotRecord) {
         handler.startRecovery(entity);
-        SnapshotRecord snapshotRecord = retrieveSnapshotRecord(entity.getIdentity());
         try {
             if (snapshotRecord != null && handler.restoreFromSnapshot(entity, deserializeSnapshot(snapshotRecord))) {
                 handler.updateStateVersion(entity, snapshotRecord.header.entityStateVersion());
@@ -74,21 +131,37 @@ public abstract class SnapshotStore<P> {
             // now we can only rollback to version 0, and hope for the best.
             handler.updateStateVersion(entity, 0);
         }
+    }
+
+    private int replayEvents(EventSourcedEntity entity, EventLog.StoredEvents<? extends Event> events,
+            EntityStateHandler handler) {
+        AtomicInteger recoveredEventsCount = new AtomicInteger();
+        long replayStart = System.nanoTime();
+        events.foreach(event -> {
+            try {
+                handler.replayEvent(entity, event);
+            } catch (RuntimeException e) {
+                logger.error("Entity {} failed to replay event {}", entity.getIdentity(), event.entityStateVersion(), e);
+                throw e;
+            }
+            recoveredEventsCount.incrementAndGet();
+        });
+        long replayTime = System.nanoTime() - replayStart;
+        handler.finishRecover(entity);
+        handler.recovered(entity, recoveredEventsCount.get(), replayTime);
+        return recoveredEventsCount.get();
+    }
+
+    private int recover(EventSourcedEntity entity, EventLog eventLog, EntityStateHandler handler,
+            SnapshotRecord snapshotRecord) {
+        long recoveryStart = System.nanoTime();
+        restoreSnapshot(entity, handler, snapshotRecord);
         try (EventLog.StoredEvents<? extends Event> events = eventLog.readEvents(entity.getIdentity(), entity.getStateVersion())) {
-            AtomicInteger recoveredEventsCount = new AtomicInteger();
-            events.foreach(event -> {
-                try {
-                    handler.replayEvent(entity, event);
-                } catch (RuntimeException e) {
-                    logger.error("Entity {} failed to replay event {}", entity.getIdentity(), event.entityStateVersion(), e);
-                    throw e;
-                }
-                recoveredEventsCount.incrementAndGet();
-            });
-            handler.finishRecover(entity);
+            int recoveredEventsCount = replayEvents(entity, events, handler);
+            long recoveryTime = System.nanoTime() - recoveryStart;
             logger.info("Entity {} recovered in {} ms replaying {} events", entity.getIdentity(),
-                    System.currentTimeMillis() - recoveryStart, recoveredEventsCount.get());
-            return recoveredEventsCount.get();
+                    TimeUnit.NANOSECONDS.toMillis(recoveryTime), recoveredEventsCount);
+            return recoveredEventsCount;
         }
     }
 
@@ -102,15 +175,35 @@ public abstract class SnapshotStore<P> {
      * @see #storeSnapshotRecord(SnapshotStore.SnapshotRecord)
      */
     public boolean store(EventSourcedEntity entity, EntityStateHandler handler) {
+        Object snapshot;
         try {
-            Object snapshot = handler.createSnapshot(entity);
-            SnapshotRecord snapshotRecord = serializeSnapshot(entity.getIdentity(), entity.getStateVersion(), snapshot);
+            snapshot = handler.createSnapshot(entity);
+        } catch (Exception e) {
+            logger.error("Creating snapshot of entity {} failed", entity.getIdentity(), e);
+            return false;
+        }
+        return store(entity.getIdentity(), entity.getStateVersion(), snapshot);
+    }
+
+    /**
+     * Serialize and store a snapshot, that was obtained from an entity before. The snapshot must not change after
+     * it was created, as this method may be called outside of entity's invocation, e. g. by
+     * {@link AsyncSnapshotWriter}.
+     *
+     * @param entityId     the identity of the entity
+     * @param stateVersion version of the entity when snapshot was created
+     * @param snapshot     snapshot returned from {@link EventSourcedEntity#createSnapshot()}
+     * @return true if the snapshot was serialized and stored
+     */
+    public boolean store(String entityId, long stateVersion, Object snapshot) {
+        try {
+            SnapshotRecord snapshotRecord = serializeSnapshot(entityId, stateVersion, snapshot);
             if (snapshotRecord != null) {
                 storeSnapshotRecord(snapshotRecord);
                 return true;
             }
         } catch (Exception e) {
-            logger.error("Creating snapshot of entity {} failed", entity.getIdentity(), e);
+            logger.error("Creating snapshot of entity {} failed", entityId, e);
         }
         return false;
     }
@@ -142,6 +235,24 @@ public abstract class SnapshotStore<P> {
      */
     protected abstract SnapshotRecord retrieveSnapshotRecord(String entityId);
 
+    /**
+     * Retrieve most recent snapshots of multiple entities. Default implementation retrieves them one by one, stores
+     * should override it to retrieve all of them in single round trip.
+     *
+     * @param entityIds the identities of entities
+     * @return header and payload of snapshots by entity id. Entities without snapshot are not present.
+     */
+    protected Map<String, SnapshotRecord> retrieveSnapshotRecords(Collection<String> entityIds) {
+        Map<String, SnapshotRecord> result = new HashMap<>();
+        for (String entityId : entityIds) {
+            SnapshotRecord snapshotRecord = retrieveSnapshotRecord(entityId);
+            if (snapshotRecord != null) {
+                result.put(entityId, snapshotRecord);
+            }
+        }
+        return result;
+    }
+
     /**
      * Actually commit the snapshot record into underlying storage.
      *
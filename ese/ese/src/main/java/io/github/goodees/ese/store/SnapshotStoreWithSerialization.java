@@ -24,19 +24,36 @@ import io.github.goodees.ese.store.jdbc.JdbcSnapshotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Base64;
 
 
 public abstract class SnapshotStoreWithSerialization<S> extends SnapshotStore<String> {
     protected static final Logger logger = LoggerFactory.getLogger(SnapshotStoreWithSerialization.class);
     protected final Serialization<S> serialization;
+    private final BinarySerialization<S> binarySerialization;
 
     protected SnapshotStoreWithSerialization(Serialization<S> serialization) {
         this.serialization = serialization;
+        this.binarySerialization = BinarySerialization.of(serialization);
+    }
+
+    /**
+     * Whether the store keeps payloads in binary form. Such store receives {@link BinarySnapshotRecord}s to store,
+     * and should retrieve them as well, so that payload of {@link BinarySerialization} is not encoded into String.
+     * @return false by default
+     */
+    protected boolean storesBinaryPayload() {
+        return false;
     }
 
     @Override
     protected Object deserializeSnapshot(SnapshotRecord snapshotRecord) {
+        if (snapshotRecord instanceof SnapshotStoreWithSerialization<?>.BinarySnapshotRecord) {
+            return binarySerialization.deserializeBinary(snapshotRecord.getHeader().payloadVersion(),
+                ((SnapshotStoreWithSerialization<?>.BinarySnapshotRecord) snapshotRecord).getBinaryPayload(), null);
+        }
         return serialization.deserialize(snapshotRecord.getHeader().payloadVersion(), snapshotRecord.getPayload(), null);
     }
 
@@ -47,9 +64,73 @@ public abstract class SnapshotStoreWithSerialization<S> extends SnapshotStore<St
             logger.error("Snapshot is not supported for serialization: {}", snapshot);
             return null;
         }
-        String payload = serialization.serialize(cast);
         int payloadVersion = serialization.payloadVersion(cast);
-        return new SnapshotRecord(new SnapshotMetadata.Default(entityId, Instant.now(), payloadVersion, stateVersion),
-            payload);
+        SnapshotMetadata header = new SnapshotMetadata.Default(entityId, Instant.now(), payloadVersion, stateVersion);
+        if (storesBinaryPayload()) {
+            return new BinarySnapshotRecord(header, binarySerialization.serializeBinary(cast));
+        }
+        return new SnapshotRecord(header, serialization.serialize(cast));
+    }
+
+    /**
+     * Binary payload of a record. String payload is converted into form of
+     * {@link BinarySerialization#of(Serialization)}, i. e. Base64 decoded for binary serialization, and encoded in UTF-8 otherwise.
+     * @param snapshotRecord the record
+     * @return binary payload
+     */
+    protected byte[] getBinaryPayload(SnapshotRecord snapshotRecord) {
+        if (snapshotRecord instanceof SnapshotStoreWithSerialization<?>.BinarySnapshotRecord) {
+            return ((SnapshotStoreWithSerialization<?>.BinarySnapshotRecord) snapshotRecord).getBinaryPayload();
+        }
+        String payload = snapshotRecord.getPayload();
+        if (payload == null) {
+            return null;
+        }
+        return serialization instanceof BinarySerialization
+                ? Base64.getDecoder().decode(payload) : payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The record about a snapshot with binary payload. String form of the payload is only created when
+     * {@link #getPayload()} is called.
+     */
+    protected class BinarySnapshotRecord extends SnapshotRecord {
+        private final byte[] binaryPayload;
+
+        /**
+         * Create new record
+         *
+         * @param header  header
+         * @param binaryPayload payload
+         */
+        public BinarySnapshotRecord(SnapshotMetadata header, byte[] binaryPayload) {
+            super(header, null);
+            this.binaryPayload = binaryPayload;
+        }
+
+        /**
+         * Binary payload.
+         *
+         * @return the payload
+         */
+        public byte[] getBinaryPayload() {
+            return binaryPayload;
+        }
+
+        /**
+         * Payload in the String form of the serialization, i. e. Base64 encoded for binary serialization, and
+         * decoded from UTF-8 otherwise.
+         *
+         * @return the payload
+         */
+        @Override
+        public String getPayload() {
+            if (binaryPayload == null) {
+                return null;
+            }
+            return serialization instanceof BinarySerialization
+                    ? Base64.getEncoder().encodeToString(binaryPayload)
+                    : new String(binaryPayload, StandardCharsets.UTF_8);
+        }
     }
 }
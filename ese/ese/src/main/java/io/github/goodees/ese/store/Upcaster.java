@@ -0,0 +1,35 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Transformation of a serialized payload from one payload version to a later one.
+ * @see UpcastingSerialization
+ */
+@FunctionalInterface
+public interface Upcaster {
+    /**
+     * Upcast the payload.
+     * @param payload payload in the source version
+     * @return payload in the target version
+     */
+    String upcast(String payload);
+}
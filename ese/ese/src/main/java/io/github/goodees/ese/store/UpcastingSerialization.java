@@ -0,0 +1,177 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialization upcasting payloads of past versions before passing them to another serialization. Upcasters are
+ * registered per type and source payload version, and upcasters of consecutive versions form a chain up to the
+ * version, that has no upcaster registered. The delegate then only needs to read that version.
+ * <p>Chains are composed at first use for given type and payload version, and cached. Consecutive
+ * {@link JsonUpcaster JsonUpcasters} of a chain are fused, so they take single pass over the payload. Payloads of
+ * versions without upcaster, as well as payloads without type, are passed to the delegate as they are.</p>
+ * <p>Upcasters are expected to be registered before the serialization is used.</p>
+ */
+public class UpcastingSerialization<T> implements Serialization<T> {
+    private final Serialization<T> delegate;
+    private final ConcurrentMap<String, TypeUpcasters> upcasters = new ConcurrentHashMap<>();
+    private final AtomicLong upcasted = new AtomicLong();
+
+    public UpcastingSerialization(Serialization<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Register upcaster of payloads of given type.
+     * @param type type discriminator of the payloads
+     * @param fromVersion payload version the upcaster reads
+     * @param toVersion payload version the upcaster produces, greater than {@code fromVersion}
+     * @param upcaster the upcaster
+     * @return this serialization
+     */
+    public UpcastingSerialization<T> register(String type, int fromVersion, int toVersion, Upcaster upcaster) {
+        if (toVersion <= fromVersion) {
+            throw new IllegalArgumentException("Upcaster of " + type + " must produce later version than "
+                    + fromVersion + ", got " + toVersion);
+        }
+        upcasters.computeIfAbsent(type, t -> new TypeUpcasters()).register(fromVersion, toVersion, upcaster);
+        return this;
+    }
+
+    /**
+     * Register upcaster of payloads of given type to the next payload version.
+     * @param type type discriminator of the payloads
+     * @param fromVersion payload version the upcaster reads
+     * @param upcaster the upcaster
+     * @return this serialization
+     */
+    public UpcastingSerialization<T> register(String type, int fromVersion, Upcaster upcaster) {
+        return register(type, fromVersion, fromVersion + 1, upcaster);
+    }
+
+    /**
+     * Number of payloads that were upcasted.
+     * @return number of upcasted payloads
+     */
+    public long getUpcastedCount() {
+        return upcasted.get();
+    }
+
+    @Override
+    public int payloadVersion(T object) {
+        return delegate.payloadVersion(object);
+    }
+
+    @Override
+    public String serialize(T object) {
+        return delegate.serialize(object);
+    }
+
+    @Override
+    public T deserialize(int payloadVersion, String payload, String type) {
+        TypeUpcasters typeUpcasters = type == null ? null : upcasters.get(type);
+        if (typeUpcasters == null || payloadVersion > typeUpcasters.maxVersion) {
+            return delegate.deserialize(payloadVersion, payload, type);
+        }
+        Chain chain = typeUpcasters.chain(payloadVersion);
+        if (chain == null) {
+            return delegate.deserialize(payloadVersion, payload, type);
+        }
+        upcasted.incrementAndGet();
+        return delegate.deserialize(chain.targetVersion, chain.upcaster.upcast(payload), type);
+    }
+
+    @Override
+    public T toSerializable(Object o) {
+        return delegate.toSerializable(o);
+    }
+
+    private static class TypeUpcasters {
+        private final Map<Integer, Step> steps = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Integer, Chain> chains = new ConcurrentHashMap<>();
+        private volatile int maxVersion = Integer.MIN_VALUE;
+
+        synchronized void register(int fromVersion, int toVersion, Upcaster upcaster) {
+            steps.put(fromVersion, new Step(toVersion, upcaster));
+            maxVersion = Math.max(maxVersion, fromVersion);
+            chains.clear();
+        }
+
+        Chain chain(int payloadVersion) {
+            Chain chain = chains.get(payloadVersion);
+            if (chain == null && steps.containsKey(payloadVersion)) {
+                chain = chains.computeIfAbsent(payloadVersion, this::compose);
+            }
+            return chain;
+        }
+
+        private Chain compose(int payloadVersion) {
+            List<Upcaster> upcasters = new ArrayList<>();
+            int version = payloadVersion;
+            for (Step step = steps.get(version); step != null; step = steps.get(version)) {
+                int last = upcasters.size() - 1;
+                if (last >= 0 && upcasters.get(last) instanceof JsonUpcaster && step.upcaster instanceof JsonUpcaster) {
+                    upcasters.set(last, ((JsonUpcaster) upcasters.get(last)).andThen((JsonUpcaster) step.upcaster));
+                } else {
+                    upcasters.add(step.upcaster);
+                }
+                version = step.toVersion;
+            }
+            if (upcasters.size() == 1) {
+                return new Chain(version, upcasters.get(0));
+            }
+            Upcaster[] sequence = upcasters.toArray(new Upcaster[upcasters.size()]);
+            return new Chain(version, payload -> {
+                String result = payload;
+                for (Upcaster upcaster : sequence) {
+                    result = upcaster.upcast(result);
+                }
+                return result;
+            });
+        }
+    }
+
+    private static class Step {
+        final int toVersion;
+        final Upcaster upcaster;
+
+        Step(int toVersion, Upcaster upcaster) {
+            this.toVersion = toVersion;
+            this.upcaster = upcaster;
+        }
+    }
+
+    private static class Chain {
+        final int targetVersion;
+        final Upcaster upcaster;
+
+        Chain(int targetVersion, Upcaster upcaster) {
+            this.targetVersion = targetVersion;
+            this.upcaster = upcaster;
+        }
+    }
+}
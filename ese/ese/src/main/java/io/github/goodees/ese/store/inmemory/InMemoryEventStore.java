@@ -21,6 +21,7 @@ package io.github.goodees.ese.store.inmemory;
  */
 
 import io.github.goodees.ese.Event;
+import io.github.goodees.ese.store.AsyncEventStore;
 import io.github.goodees.ese.store.EventLog;
 import io.github.goodees.ese.EventSourcedEntity;
 import io.github.goodees.ese.store.EventStore;
@@ -29,6 +30,8 @@ import io.github.goodees.ese.store.EventStoreException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiFunction;
@@ -37,7 +40,7 @@ import java.util.function.Consumer;
 import static java.util.stream.Collectors.toList;
 
 
-public class InMemoryEventStore implements EventStore, EventLog {
+public class InMemoryEventStore implements EventStore, AsyncEventStore, EventLog {
     private ConcurrentMap<String, List<Event>> storage = new ConcurrentHashMap<>();
 
     private long lastVersionOf(String entityId) {
@@ -77,6 +80,18 @@ public class InMemoryEventStore implements EventStore, EventLog {
         }
     }
 
+    @Override
+    public CompletionStage<Void> persistAsync(Iterable<? extends Event> events) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            persist(events);
+            result.complete(null);
+        } catch (EventStoreException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
     @Override
     public StoredEvents<Event> readEvents(String entityId, long afterVersion) {
         return new StoredEvents<Event>() {
@@ -0,0 +1,96 @@
+package io.github.goodees.ese.store.jdbc;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.github.goodees.ese.Event;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * JDBC schema storing payloads in binary columns, like BLOB or bytea. Tables are the same as for
+ * {@link DefaultJdbcSchema}, except for the PAYLOAD column of event and snapshot table.
+ * <p>Payloads are serialized by {@link io.github.goodees.ese.store.BinarySerialization}. Other serializations are
+ * stored as UTF-8 encoded strings.</p>
+ * <p>Like {@link DefaultJdbcSchema}, version table may be {@code null} to use primary key of event table as
+ * optimistic lock, as {@link EventKeyJdbcSchema} does.</p>
+ */
+public class BinaryJdbcSchema extends DefaultJdbcSchema {
+
+    public BinaryJdbcSchema(String eventTable, String versionTable, String snapshotTable) {
+        super(eventTable, versionTable, snapshotTable);
+    }
+
+    @Override
+    protected boolean usesBinaryPayload() {
+        return true;
+    }
+
+    @Override
+    protected void prepareInsert(PreparedStatement insertEvent, Event event, int payloadVersion, byte[] payload)
+            throws SQLException {
+        insertEvent.setString(1, event.entityId());
+        insertEvent.setLong(2, event.entityStateVersion());
+        insertEvent.setTimestamp(3, new Timestamp(event.getTimestamp().toEpochMilli()));
+        insertEvent.setString(4, event.getType());
+        insertEvent.setInt(5, payloadVersion);
+        insertEvent.setBytes(6, payload);
+    }
+
+    @Override
+    protected byte[] readEventPayloadBytes(ResultSet rs) throws SQLException {
+        return rs.getBytes(5);
+    }
+
+    @Override
+    protected PreparedStatement updateSnapshot(Connection connection, String entityId, long stateVersion,
+            int payloadVersion, byte[] payload) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("UPDATE " + getSnapshotTable()
+                + " SET VERSION=?, TIMESTAMP=?, PAYLOAD_VERSION=?, PAYLOAD=? WHERE ID = ?");
+        ps.setLong(1, stateVersion);
+        ps.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+        ps.setInt(3, payloadVersion);
+        ps.setBytes(4, payload);
+        ps.setString(5, entityId);
+        return ps;
+    }
+
+    @Override
+    protected PreparedStatement insertSnapshot(Connection connection, String entityId, long stateVersion,
+            int payloadVersion, byte[] payload) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("INSERT INTO " + getSnapshotTable()
+                + "(id, version, timestamp, payload_version, payload) values (?, ?, ?, ?, ?)");
+        ps.setString(1, entityId);
+        ps.setLong(2, stateVersion);
+        ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+        ps.setInt(4, payloadVersion);
+        ps.setBytes(5, payload);
+        return ps;
+    }
+
+    @Override
+    protected byte[] readSnapshotPayloadBytes(ResultSet rs) throws SQLException {
+        return rs.getBytes(5);
+    }
+}
@@ -29,6 +29,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * JDBC schema for separate tables per entity. Following tables are expected to exist:
@@ -37,6 +40,9 @@ import java.time.Instant;
  * <li><em>versionTable</em>(ID, VERSION)</li>
  * <li><em>snapshotTable</em>(ID, VERSION, TIMESTAMP, PAYLOAD_VERSION, PAYLOAD) primary key (ID)</li>
  * </ul>
+ * <p>When version table is {@code null}, schema does not {@link #usesVersionTable() use version table}, and current
+ * version of an entity is the highest version in event table.</p>
+ * @see EventKeyJdbcSchema
  */
 public class DefaultJdbcSchema extends JdbcSchema {
 
@@ -62,9 +68,16 @@ public class DefaultJdbcSchema extends JdbcSchema {
         return snapshotTable;
     }
 
+    @Override
+    protected boolean usesVersionTable() {
+        return versionTable != null;
+    }
+
     @Override
     protected PreparedStatement selectEntityVersion(Connection connection, String entityId) throws SQLException {
-        PreparedStatement st = connection.prepareStatement("SELECT VERSION FROM " + getVersionTable() + " WHERE ID=?");
+        PreparedStatement st = usesVersionTable()
+                ? connection.prepareStatement("SELECT VERSION FROM " + getVersionTable() + " WHERE ID=?")
+                : connection.prepareStatement("SELECT MAX(VERSION) FROM " + getEventTable() + " WHERE ID=?");
         st.setString(1, entityId);
         return st;
     }
@@ -122,6 +135,30 @@ public class DefaultJdbcSchema extends JdbcSchema {
         return st;
     }
 
+    @Override
+    protected boolean supportsPaging() {
+        return true;
+    }
+
+    /**
+     * Select a page of events with {@code LIMIT} clause. Dialects without it need to override this method.
+     */
+    @Override
+    protected PreparedStatement selectEvents(Connection connection, String entityId, long afterVersion, int limit)
+            throws SQLException {
+        PreparedStatement st = connection.prepareStatement("SELECT ID, VERSION, TYPE, PAYLOAD_VERSION, PAYLOAD "
+                + "FROM " + getEventTable() + " WHERE ID=? AND VERSION > ? ORDER BY VERSION LIMIT ?");
+        st.setString(1, entityId);
+        st.setLong(2, afterVersion);
+        st.setInt(3, limit);
+        return st;
+    }
+
+    @Override
+    protected long readEventVersion(ResultSet rs) throws SQLException {
+        return rs.getLong(2);
+    }
+
     @Override
     protected String readEventType(ResultSet rs) throws SQLException {
         return rs.getString(3);
@@ -181,4 +218,40 @@ public class DefaultJdbcSchema extends JdbcSchema {
     protected String readSnapshotPayload(ResultSet rs) throws SQLException {
         return rs.getString(5);
     }
+
+    @Override
+    protected int getBatchSize() {
+        return 100;
+    }
+
+    @Override
+    protected PreparedStatement selectSnapshots(Connection connection, List<String> entityIds) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("SELECT ID, VERSION, TIMESTAMP, PAYLOAD_VERSION, PAYLOAD FROM "
+                + getSnapshotTable() + " WHERE ID IN (" + String.join(",", Collections.nCopies(entityIds.size(), "?")) + ")");
+        int i = 1;
+        for (String entityId : entityIds) {
+            ps.setString(i++, entityId);
+        }
+        return ps;
+    }
+
+    @Override
+    protected PreparedStatement selectEvents(Connection connection, Map<String, Long> afterVersions)
+            throws SQLException {
+        PreparedStatement st = connection.prepareStatement("SELECT ID, VERSION, TYPE, PAYLOAD_VERSION, PAYLOAD "
+                + "FROM " + getEventTable() + " WHERE "
+                + String.join(" OR ", Collections.nCopies(afterVersions.size(), "(ID=? AND VERSION > ?)"))
+                + " ORDER BY ID, VERSION");
+        int i = 1;
+        for (Map.Entry<String, Long> afterVersion : afterVersions.entrySet()) {
+            st.setString(i++, afterVersion.getKey());
+            st.setLong(i++, afterVersion.getValue());
+        }
+        return st;
+    }
+
+    @Override
+    protected String readEventEntityId(ResultSet rs) throws SQLException {
+        return rs.getString(1);
+    }
 }
@@ -0,0 +1,40 @@
+package io.github.goodees.ese.store.jdbc;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * JDBC schema without version table. Primary key (ID, VERSION) of event table serves as optimistic lock: stale
+ * entity attempts to insert event version, that already exists, and fails on duplicate key. Current version of an
+ * entity is the highest version in event table. Following tables are expected to exist:
+ * <ul>
+ * <li><em>eventTable</em>(ID, VERSION, TIMESTAMP, TYPE, PAYLOAD_VERSION, PAYLOAD) primary key (ID, VERSION)</li>
+ * <li><em>snapshotTable</em>(ID, VERSION, TIMESTAMP, PAYLOAD_VERSION, PAYLOAD) primary key (ID)</li>
+ * </ul>
+ * <p>Persisting events then writes single table and index instead of two.</p>
+ * <p>This is {@link DefaultJdbcSchema} without version table. Binary payloads are stored without version table by
+ * {@link BinaryJdbcSchema} with {@code null} version table.</p>
+ */
+public class EventKeyJdbcSchema extends DefaultJdbcSchema {
+
+    public EventKeyJdbcSchema(String eventTable, String snapshotTable) {
+        super(eventTable, null, snapshotTable);
+    }
+}
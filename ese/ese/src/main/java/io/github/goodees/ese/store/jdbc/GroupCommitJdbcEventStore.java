@@ -0,0 +1,347 @@
+package io.github.goodees.ese.store.jdbc;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.github.goodees.ese.Event;
+import io.github.goodees.ese.store.AsyncEventStore;
+import io.github.goodees.ese.store.EventStoreException;
+import io.github.goodees.ese.store.Serialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event store, that persists events of many entities in a single transaction. Persist requests of concurrently
+ * executing entities are queued and written in groups by single task at a time on provided executor. A group is
+ * collected until it reaches maximum size, or the collection window passes, and is written with one insert batch and
+ * one commit. Every caller still waits for its own events to be committed, and fails individually.
+ * <p>Versions of all entities in a group are checked by conditional update. Entity, that fails with optimistic lock,
+ * is left out of the group, others are committed. When the group fails in any other way, e.g. by duplicate key of
+ * schema without version table, it is rolled back and its requests are persisted one by one.</p>
+ * <p>Transactions are managed locally on connections of the data source, callers' transactions are not joined.</p>
+ * <p>{@link #persistAsync(Iterable)} does not block the caller at all. Its result is completed on
+ * {@linkplain #completeOn(Executor) completion executor} after the group is committed, so that dependent stages do
+ * not delay writing of next group.</p>
+ * @param <E> type of serializable events
+ */
+public class GroupCommitJdbcEventStore<E> extends JdbcEventStore<E> implements AsyncEventStore {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitJdbcEventStore.class);
+
+    private final DataSource dataSource;
+    private final JdbcSchema schema;
+    private final Executor executor;
+    private final int maxGroupSize;
+    private final long windowNanos;
+    private final BlockingQueue<GroupedTemplate> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile Executor completionExecutor = ForkJoinPool.commonPool();
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong committedPersists = new AtomicLong();
+    private final AtomicLong rejectedPersists = new AtomicLong();
+    private final AtomicLong fallbackGroups = new AtomicLong();
+
+    /**
+     * Create the store.
+     * @param dataSource data source with locally managed transactions
+     * @param schema the schema
+     * @param serialization serialization of the events
+     * @param executor executor to write groups on. Must not be the one persisting entities run on, as they block
+     *                 until their group is written
+     * @param maxGroupSize maximum number of persist requests in single transaction
+     * @param window maximum time to wait for more requests after first one of a group, zero to only take those
+     *               already queued
+     * @param unit unit of the window
+     */
+    public GroupCommitJdbcEventStore(DataSource dataSource, JdbcSchema schema, Serialization<E> serialization,
+            Executor executor, int maxGroupSize, long window, TimeUnit unit) {
+        super(dataSource, schema, serialization, LOCAL_HANDLER);
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("Group size must be positive, got " + maxGroupSize);
+        }
+        this.dataSource = dataSource;
+        this.schema = schema;
+        this.executor = executor;
+        this.maxGroupSize = maxGroupSize;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Executor to complete results of {@link #persistAsync(Iterable)} on, and thus to run their dependent stages.
+     * Results are completed on the thread writing the group, when the executor rejects them.
+     * @param completionExecutor the executor, {@link ForkJoinPool#commonPool()} by default
+     * @return this event store
+     */
+    public GroupCommitJdbcEventStore<E> completeOn(Executor completionExecutor) {
+        this.completionExecutor = Objects.requireNonNull(completionExecutor);
+        return this;
+    }
+
+    @Override
+    protected PersistTemplate createTemplate() {
+        return new GroupedTemplate();
+    }
+
+    @Override
+    public CompletionStage<Void> persistAsync(Iterable<? extends Event> events) {
+        GroupedTemplate template = new GroupedTemplate();
+        template.async = true;
+        try {
+            for (Event event : events) {
+                template.addEvent(event);
+            }
+        } catch (EventStoreException e) {
+            template.fail(e);
+            return template.result;
+        }
+        return template.submit();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                logger.warn("Group commit could not be scheduled, persisting {} requests one by one", queue.size(), e);
+                for (GroupedTemplate template = queue.poll(); template != null; template = queue.poll()) {
+                    template.persistAlone();
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (List<GroupedTemplate> group = collectGroup(); !group.isEmpty(); group = collectGroup()) {
+                write(group);
+            }
+        } finally {
+            draining.set(false);
+        }
+        // a request might have been queued after last poll, while we were still writing
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private List<GroupedTemplate> collectGroup() {
+        List<GroupedTemplate> group = new ArrayList<>();
+        GroupedTemplate first = queue.poll();
+        if (first == null) {
+            return group;
+        }
+        group.add(first);
+        long deadline = System.nanoTime() + windowNanos;
+        while (group.size() < maxGroupSize) {
+            queue.drainTo(group, maxGroupSize - group.size());
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= maxGroupSize || remaining <= 0) {
+                break;
+            }
+            try {
+                GroupedTemplate next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                group.add(next);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return group;
+    }
+
+    private void write(List<GroupedTemplate> group) {
+        List<GroupedTemplate> accepted = new ArrayList<>(group.size());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (schema.usesVersionTable()) {
+                    for (GroupedTemplate template : group) {
+                        try {
+                            template.incrementVersion(connection);
+                            accepted.add(template);
+                        } catch (EventStoreException e) {
+                            rejectedPersists.incrementAndGet();
+                            template.fail(e);
+                        }
+                    }
+                } else {
+                    accepted.addAll(group);
+                }
+                if (!accepted.isEmpty()) {
+                    try (PreparedStatement insertEvent = schema.insertEvent(connection, accepted.get(0).entityId())) {
+                        for (GroupedTemplate template : accepted) {
+                            template.addBatch(insertEvent);
+                        }
+                        insertEvent.executeBatch();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException | EventStoreException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException | EventStoreException e) {
+            fallbackGroups.incrementAndGet();
+            logger.debug("Group of {} requests failed, persisting them one by one", group.size(), e);
+            // requests, that were rejected by version check, have already failed
+            for (GroupedTemplate template : group) {
+                if (!template.isDone()) {
+                    template.persistAlone();
+                }
+            }
+            return;
+        }
+        commits.incrementAndGet();
+        committedPersists.addAndGet(accepted.size());
+        accepted.forEach(GroupedTemplate::complete);
+    }
+
+    /**
+     * Number of transactions committed by group commit.
+     * @return committed groups
+     */
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    /**
+     * Number of persist requests committed as part of a group.
+     * @return persists committed in groups
+     */
+    public long getGroupedPersistCount() {
+        return committedPersists.get();
+    }
+
+    /**
+     * Number of persist requests left out of a group for failing optimistic lock.
+     * @return rejected persists
+     */
+    public long getRejectedPersistCount() {
+        return rejectedPersists.get();
+    }
+
+    /**
+     * Number of groups, that failed and were persisted one by one.
+     * @return failed groups
+     */
+    public long getFallbackCount() {
+        return fallbackGroups.get();
+    }
+
+    /**
+     * Average number of persist requests committed in single transaction.
+     * @return average group size, zero if nothing was committed yet
+     */
+    public double getAverageGroupSize() {
+        long count = commits.get();
+        return count == 0 ? 0 : (double) committedPersists.get() / count;
+    }
+
+    class GroupedTemplate extends PersistTemplate {
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private boolean async;
+        private volatile boolean done;
+
+        @Override
+        public void persist() throws EventStoreException {
+            try {
+                submit().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof EventStoreException) {
+                    throw (EventStoreException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        CompletableFuture<Void> submit() {
+            if (isEmpty()) {
+                complete();
+            } else {
+                queue.add(this);
+                scheduleDrain();
+            }
+            return result;
+        }
+
+        void persistAlone() {
+            try {
+                super.persist();
+                complete();
+            } catch (EventStoreException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        void complete() {
+            finish(() -> result.complete(null));
+        }
+
+        void fail(Exception e) {
+            finish(() -> result.completeExceptionally(e));
+        }
+
+        private void finish(Runnable completion) {
+            done = true;
+            if (!async) {
+                // the caller is blocked waiting for the result
+                completion.run();
+                return;
+            }
+            try {
+                completionExecutor.execute(completion);
+            } catch (RejectedExecutionException e) {
+                completion.run();
+            }
+        }
+
+        boolean isDone() {
+            return done;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package io.github.goodees.ese.store.jdbc;
  */
 
 import io.github.goodees.ese.Event;
+import io.github.goodees.ese.store.BinarySerialization;
 import io.github.goodees.ese.store.EventLog;
 import io.github.goodees.ese.EventSourcedEntity;
 import io.github.goodees.ese.store.Serialization;
@@ -32,8 +33,23 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Event log backend by schema and serialization.
@@ -44,7 +60,12 @@ public class JdbcEventLog<E extends Event> implements EventLog {
     private final DataSource ds;
     private final JdbcSchema schema;
     private final Serialization<E> serialization;
+    private final BinarySerialization<E> binarySerialization;
     private final boolean strict;
+    private volatile Executor deserializationExecutor;
+    private volatile int prefetch;
+    private volatile int fetchSize;
+    private volatile int pageSize;
 
     /**
      * Create instance that will read from provided datasource, delegating queries to JdbcSchema, deserializing events
@@ -54,6 +75,8 @@ public class JdbcEventLog<E extends Event> implements EventLog {
      * This can usually happen in two cases: Either there was an error in payload serialization, or an event could have
      * belong to a future version of the system, code was rolled back and currently running code doesn't yet know such event.
      * <p>When {@code strict} is false, such event is skipped.
+     * <p>{@link StoredEvents#reduce(Object, BiFunction)} is not affected by strict mode, and passes {@code null} to
+     * the reducer for every event, that cannot be deserialized.
      *
      * <p>In case the entity needs very strong state consistency guarantees, strict mode should be used.
      *
@@ -66,6 +89,7 @@ public class JdbcEventLog<E extends Event> implements EventLog {
         this.ds = ds;
         this.schema = schema;
         this.serialization = serialization;
+        this.binarySerialization = BinarySerialization.of(serialization);
         this.strict = strict;
     }
 
@@ -97,6 +121,137 @@ public class JdbcEventLog<E extends Event> implements EventLog {
         }
     }
 
+    /**
+     * Read events of multiple entities with one query per {@link JdbcSchema#getBatchSize()} entities, when schema
+     * supports it. Events of every entity are passed to the consumer while the query result is being read.
+     */
+    @Override
+    public void readEvents(Map<String, Long> afterVersions, BiConsumer<String, StoredEvents<? extends Event>> consumer) {
+        int batchSize = schema.getBatchSize();
+        if (batchSize <= 0) {
+            EventLog.super.readEvents(afterVersions, consumer);
+            return;
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(afterVersions.entrySet());
+        try (Connection connection = ds.getConnection()) {
+            for (int i = 0; i < entries.size(); i += batchSize) {
+                Map<String, Long> batch = new LinkedHashMap<>();
+                entries.subList(i, Math.min(i + batchSize, entries.size()))
+                        .forEach(e -> batch.put(e.getKey(), e.getValue()));
+                Set<String> withoutEvents = new LinkedHashSet<>(batch.keySet());
+                try (PreparedStatement statement = withFetchSize(schema.selectEvents(connection, batch));
+                        ResultSet resultSet = statement.executeQuery()) {
+                    boolean hasRow = resultSet.next();
+                    while (hasRow) {
+                        String entityId = schema.readEventEntityId(resultSet);
+                        withoutEvents.remove(entityId);
+                        EntityEvents events = new EntityEvents(entityId, resultSet);
+                        consumer.accept(entityId, events);
+                        hasRow = events.skipRemaining();
+                    }
+                }
+                for (String entityId : withoutEvents) {
+                    consumer.accept(entityId, new EntityEvents(entityId, null));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot access storage", e);
+        }
+    }
+
+    /**
+     * Read payload of current row. Returned deserialization of it may be invoked later, on any thread.
+     */
+    private Supplier<E> readPayload(ResultSet resultSet) throws SQLException {
+        String type = schema.readEventType(resultSet);
+        int payloadVersion = schema.readEventPayloadVersion(resultSet);
+        if (schema.usesBinaryPayload()) {
+            byte[] payload = schema.readEventPayloadBytes(resultSet);
+            return () -> binarySerialization.deserializeBinary(payloadVersion, payload, type);
+        }
+        String payload = schema.readEventPayload(resultSet);
+        return () -> serialization.deserialize(payloadVersion, payload, type);
+    }
+
+    private E readEvent(ResultSet resultSet, String entityId) throws SQLException {
+        E event = readPayload(resultSet).get();
+        if (event == null) {
+            long entityVersion = schema.readEntityVersion(resultSet);
+
+            if (isStrict()) {
+                throw new IllegalArgumentException(entityId + " Could not deserialize event "
+                        + entityVersion);
+            } else {
+                logger.error("{} Could not deserialize event {}", entityId, entityVersion);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Deserialize events ahead of the entity replaying them. Up to {@code prefetch} rows are read ahead and their
+     * payloads are deserialized on provided executor, possibly in parallel, while events are still passed to the
+     * entity one by one in order of their versions. Suitable for long histories, where deserialization dominates
+     * recovery time. Serialization must be thread safe.
+     * <p>Result set is still read by the thread iterating the events, as JDBC objects are not meant to be shared
+     * between threads.</p>
+     * @param executor executor to deserialize events on
+     * @param prefetch maximum number of events read ahead
+     * @return this event log
+     */
+    public JdbcEventLog<E> pipelined(Executor executor, int prefetch) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch must be positive, got " + prefetch);
+        }
+        this.deserializationExecutor = Objects.requireNonNull(executor);
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * Hint the driver to fetch given number of rows per round trip, instead of its default. Drivers, that by default
+     * read whole result into memory, stream it then.
+     * @param fetchSize number of rows, zero for driver default
+     * @return this event log
+     * @see java.sql.Statement#setFetchSize(int)
+     */
+    public JdbcEventLog<E> fetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size must not be negative, got " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Read events of single entity in pages of bounded size, each page queried after last version of previous one,
+     * so that memory used during replay does not depend on length of entity's history, regardless of driver.
+     * Schemas that do not {@link JdbcSchema#supportsPaging() support paging} keep reading all events by single
+     * query.
+     * @param pageSize maximum number of events per query, zero to read all events by single query
+     * @return this event log
+     */
+    public JdbcEventLog<E> paged(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative, got " + pageSize);
+        }
+        if (pageSize > 0 && !schema.supportsPaging()) {
+            logger.warn("Schema {} does not support paged queries, events will be read by single query",
+                schema.getClass().getName());
+            return this;
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    private PreparedStatement withFetchSize(PreparedStatement statement) throws SQLException {
+        int rows = fetchSize;
+        if (rows > 0) {
+            statement.setFetchSize(rows);
+        }
+        return statement;
+    }
+
     /**
      * Indicate whether failure to deserialize event causes exception to be thrown.
      * @return
@@ -107,46 +262,76 @@ public class JdbcEventLog<E extends Event> implements EventLog {
 
     class JdbcStoredEvents implements EventLog.StoredEvents<E> {
         private final String entityId;
+        private final int pageSize;
         private Connection connection;
         private PreparedStatement statement;
         private ResultSet resultSet;
+        private long lastVersion;
+        private int pageRows;
         private boolean iterating;
         private boolean stop;
 
         JdbcStoredEvents(String entityId, long afterVersion) throws SQLException {
+            this.entityId = entityId;
+            this.pageSize = JdbcEventLog.this.pageSize;
+            this.lastVersion = afterVersion;
             try {
                 connection = ds.getConnection();
-                this.entityId = entityId;
-                statement = schema.selectEvents(connection, entityId, afterVersion);
-                resultSet = statement.executeQuery();
+                if (pageSize > 0) {
+                    queryPage();
+                } else {
+                    statement = withFetchSize(schema.selectEvents(connection, entityId, afterVersion));
+                    resultSet = statement.executeQuery();
+                }
             } catch (SQLException e) {
                 close();
                 throw e;
             }
         }
 
+        private void queryPage() throws SQLException {
+            cleanup(resultSet);
+            cleanup(statement);
+            resultSet = null;
+            statement = withFetchSize(schema.selectEvents(connection, entityId, lastVersion, pageSize));
+            resultSet = statement.executeQuery();
+            pageRows = 0;
+        }
+
+        /**
+         * Move to next event, querying next page when current one was full.
+         */
+        private boolean next() throws SQLException {
+            if (resultSet.next()) {
+                if (pageSize > 0) {
+                    pageRows++;
+                    lastVersion = schema.readEventVersion(resultSet);
+                }
+                return true;
+            }
+            if (pageSize > 0 && pageRows == pageSize) {
+                queryPage();
+                return next();
+            }
+            return false;
+        }
+
         @Override
         public void foreach(Consumer<? super E> consumer) {
             if (iterating) {
                 throw new IllegalStateException("Iteration has already been done");
             }
             iterating = true;
+            Executor executor = deserializationExecutor;
+            if (executor != null) {
+                pipeline(executor, prefetch, consumer, true);
+                return;
+            }
             try {
-                while (resultSet.next() && !stop) {
-                    String type = schema.readEventType(resultSet);
-                    int payloadVersion = schema.readEventPayloadVersion(resultSet);
-                    E event = serialization.deserialize(payloadVersion, schema.readEventPayload(resultSet), type);
+                while (!stop && next()) {
+                    E event = readEvent(resultSet, entityId);
                     if (event != null) {
                         consumer.accept(event);
-                    } else {
-                        long entityVersion = schema.readEntityVersion(resultSet);
-
-                        if (isStrict()) {
-                            throw new IllegalArgumentException(entityId + " Could not deserialize event "
-                                    + entityVersion);
-                        } else {
-                            logger.error("{} Could not deserialize event {}", entityId, entityVersion);
-                        }
                     }
                 }
             } catch (SQLException e) {
@@ -160,11 +345,16 @@ public class JdbcEventLog<E extends Event> implements EventLog {
                 throw new IllegalStateException("Iteration has already been done");
             }
             iterating = true;
+            Executor executor = deserializationExecutor;
+            if (executor != null) {
+                AtomicReference<R> result = new AtomicReference<>(initial);
+                pipeline(executor, prefetch, event -> result.set(reducer.apply(result.get(), event)), false);
+                return result.get();
+            }
             try {
                 R result = initial;
-                while (resultSet.next() && !stop) {
-                    E event = serialization.deserialize(schema.readEventPayloadVersion(resultSet),
-                        schema.readEventPayload(resultSet), schema.readEventType(resultSet));
+                while (!stop && next()) {
+                    E event = readPayload(resultSet).get();
                     result = reducer.apply(result, event);
                 }
                 return result;
@@ -173,6 +363,58 @@ public class JdbcEventLog<E extends Event> implements EventLog {
             }
         }
 
+        /**
+         * Pass events deserialized ahead to the consumer.
+         * @param checked whether events that cannot be deserialized are subject to strict mode, or passed as null
+         */
+        private void pipeline(Executor executor, int prefetch, Consumer<? super E> consumer, boolean checked) {
+            Deque<CompletableFuture<E>> window = new ArrayDeque<>(prefetch);
+            try {
+                boolean hasRow = true;
+                while (!stop) {
+                    while (hasRow && window.size() < prefetch) {
+                        hasRow = next();
+                        if (hasRow) {
+                            String type = schema.readEventType(resultSet);
+                            Supplier<E> deserialization = readPayload(resultSet);
+                            window.add(CompletableFuture.supplyAsync(
+                                () -> checked ? deserialize(deserialization, type) : deserialization.get(), executor));
+                        }
+                    }
+                    CompletableFuture<E> next = window.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    E event = next.join();
+                    if (event != null || !checked) {
+                        consumer.accept(event);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot access datastore", e);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            } finally {
+                // stopped or failed, events read ahead are not needed
+                window.forEach(f -> f.cancel(false));
+            }
+        }
+
+        private E deserialize(Supplier<E> deserialization, String type) {
+            E event = deserialization.get();
+            if (event == null) {
+                if (isStrict()) {
+                    throw new IllegalArgumentException(entityId + " Could not deserialize event of type " + type);
+                } else {
+                    logger.error("{} Could not deserialize event of type {}", entityId, type);
+                }
+            }
+            return event;
+        }
+
         @Override
         public void stop() {
             stop = true;
@@ -196,4 +438,82 @@ public class JdbcEventLog<E extends Event> implements EventLog {
         }
     }
 
+    /**
+     * Events of single entity within result of batched query. Result set is positioned at first event of the entity,
+     * and is shared with following entities, so closing does not close it.
+     */
+    class EntityEvents implements EventLog.StoredEvents<E> {
+        private final String entityId;
+        private final ResultSet resultSet;
+        private boolean current;
+        private boolean hasRow;
+        private boolean iterating;
+        private boolean stop;
+
+        EntityEvents(String entityId, ResultSet resultSet) {
+            this.entityId = entityId;
+            this.resultSet = resultSet;
+            this.current = resultSet != null;
+            this.hasRow = current;
+        }
+
+        @Override
+        public void foreach(Consumer<? super E> consumer) {
+            iterate(null, (r, event) -> {
+                consumer.accept(event);
+                return null;
+            }, true);
+        }
+
+        @Override
+        public <R> R reduce(R initial, BiFunction<R, ? super E, R> reducer) {
+            return iterate(initial, reducer, false);
+        }
+
+        /**
+         * Pass events of the entity to the reducer.
+         * @param checked whether events that cannot be deserialized are subject to strict mode, or passed as null
+         */
+        private <R> R iterate(R initial, BiFunction<R, ? super E, R> reducer, boolean checked) {
+            if (iterating) {
+                throw new IllegalStateException("Iteration has already been done");
+            }
+            iterating = true;
+            try {
+                R result = initial;
+                while (current && !stop) {
+                    E event = checked ? readEvent(resultSet, entityId) : readPayload(resultSet).get();
+                    if (event != null || !checked) {
+                        result = reducer.apply(result, event);
+                    }
+                    advance();
+                }
+                return result;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot access datastore", e);
+            }
+        }
+
+        private void advance() throws SQLException {
+            hasRow = resultSet.next();
+            current = hasRow && entityId.equals(schema.readEventEntityId(resultSet));
+        }
+
+        boolean skipRemaining() throws SQLException {
+            while (current) {
+                advance();
+            }
+            return hasRow;
+        }
+
+        @Override
+        public void stop() {
+            stop = true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
 }
@@ -21,6 +21,7 @@ package io.github.goodees.ese.store.jdbc;
  */
 
 import io.github.goodees.ese.*;
+import io.github.goodees.ese.store.BinarySerialization;
 import io.github.goodees.ese.store.EventStore;
 import io.github.goodees.ese.store.EventStoreException;
 import io.github.goodees.ese.store.Serialization;
@@ -37,7 +38,9 @@ public class JdbcEventStore<E> implements EventStore {
     private final DataSource dataSource;
     private final JdbcSchema schema;
     private final Serialization<E> serialization;
+    private final BinarySerialization<E> binarySerialization;
     private final TxHandler txHandler;
+    private volatile boolean conditionalUpdate;
 
     public JdbcEventStore(DataSource dataSource, JdbcSchema schema, Serialization<E> serialization) {
         this(dataSource, schema, serialization, CONTAINER_HANDLER);
@@ -47,10 +50,27 @@ public class JdbcEventStore<E> implements EventStore {
         this.dataSource = dataSource;
         this.schema = schema;
         this.serialization = serialization;
+        this.binarySerialization = BinarySerialization.of(serialization);
         this.txHandler = handler;
 
     }
 
+    /**
+     * Persist events with fewer round trips. Entity version is checked and incremented by single conditional update
+     * before the events are inserted. Entity version is only selected, when the update did not match, to distinguish
+     * new entity from optimistic lock failure. Existing entities then persist with two statements instead of
+     * four.
+     * <p>The update locks entity's version row until the transaction completes, so concurrent writers of the same
+     * entity wait for each other instead of failing at the end.</p>
+     * <p>Schemas without version table, like {@link EventKeyJdbcSchema}, only insert the events regardless of this
+     * setting.</p>
+     * @return this event store
+     */
+    public JdbcEventStore<E> conditionalUpdate() {
+        this.conditionalUpdate = true;
+        return this;
+    }
+
     protected boolean isSupportedEvent(Event event) {
         return serialization.toSerializable(event) != null;
     }
@@ -72,6 +92,10 @@ public class JdbcEventStore<E> implements EventStore {
         return serialization.serialize(checkCast(event));
     }
 
+    protected byte[] serializeBinaryPayload(Event event) throws EventStoreException {
+        return binarySerialization.serializeBinary(checkCast(event));
+    }
+
     @Override
     public void persist(Event event) throws EventStoreException {
         PersistTemplate template = createTemplate();
@@ -102,7 +126,11 @@ public class JdbcEventStore<E> implements EventStore {
     }
 
     protected void prepareInsert(PreparedStatement insertEvent, Event event) throws SQLException, EventStoreException {
-        schema.prepareInsert(insertEvent, event, determinePayloadVersion(event), serializePayload(event));
+        if (schema.usesBinaryPayload()) {
+            schema.prepareInsert(insertEvent, event, determinePayloadVersion(event), serializeBinaryPayload(event));
+        } else {
+            schema.prepareInsert(insertEvent, event, determinePayloadVersion(event), serializePayload(event));
+        }
     }
 
     protected class PersistTemplate {
@@ -132,6 +160,14 @@ public class JdbcEventStore<E> implements EventStore {
             if (events.isEmpty()) {
                 return;
             }
+            if (!schema.usesVersionTable()) {
+                persistByEventKey();
+                return;
+            }
+            if (conditionalUpdate) {
+                persistConditionally();
+                return;
+            }
             try (Connection connection = txHandler.enroll(dataSource.getConnection());
                     PreparedStatement selectVersion = schema.selectEntityVersion(connection, entityId);
                     ResultSet rs = selectVersion.executeQuery()) {
@@ -151,6 +187,115 @@ public class JdbcEventStore<E> implements EventStore {
             }
         }
 
+        private void persistByEventKey() throws EventStoreException {
+            try (Connection connection = txHandler.enroll(dataSource.getConnection())) {
+                // without version check upfront, a stale batch must not be partially inserted
+                boolean autoCommit = connection.getAutoCommit();
+                if (autoCommit) {
+                    connection.setAutoCommit(false);
+                }
+                try (PreparedStatement insertEvent = schema.insertEvent(connection, entityId)) {
+                    storeEvents(insertEvent);
+                    if (autoCommit) {
+                        connection.commit();
+                    }
+                    txHandler.commit(connection);
+                } catch (SQLException | RuntimeException e) {
+                    if (autoCommit) {
+                        connection.rollback();
+                    }
+                    txHandler.rollback(connection);
+                    throw e;
+                } finally {
+                    if (autoCommit) {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            } catch (SQLException ex) {
+                if (schema.isDuplicateKey(ex)) {
+                    // other constraints than the primary key fail the same way, only moved version is a conflict
+                    long version = readCurrentVersion();
+                    if (version > startVersion) {
+                        throw EventStoreException.optimisticLock(entityId, version, startVersion);
+                    }
+                }
+                throw EventStoreException.storeFailed(entityId, ex);
+            }
+        }
+
+        /**
+         * Read current version of the entity outside of failed transaction.
+         * @return the version, or -1 when it cannot be read
+         */
+        private long readCurrentVersion() {
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement selectVersion = schema.selectEntityVersion(connection, entityId);
+                    ResultSet rs = selectVersion.executeQuery()) {
+                return rs.next() ? schema.readEntityVersion(rs) : 0;
+            } catch (SQLException e) {
+                return -1;
+            }
+        }
+
+        private void persistConditionally() throws EventStoreException {
+            try (Connection connection = txHandler.enroll(dataSource.getConnection())) {
+                try (PreparedStatement insertEvent = schema.insertEvent(connection, entityId)) {
+                    // serialize before the version moves, so that failing serialization leaves no trace even when
+                    // transaction is not rolled back by the handler
+                    addBatch(insertEvent);
+                    incrementVersion(connection);
+                    insertEvent.executeBatch();
+                    txHandler.commit(connection);
+                } catch (SQLException | RuntimeException | EventStoreException e) {
+                    txHandler.rollback(connection);
+                    throw e;
+                }
+            } catch (SQLException ex) {
+                throw EventStoreException.storeFailed(entityId, ex);
+            }
+        }
+
+        String entityId() {
+            return entityId;
+        }
+
+        boolean isEmpty() {
+            return events.isEmpty();
+        }
+
+        /**
+         * Move entity version from start to end version of the events by conditional update, or create it for new
+         * entity.
+         */
+        void incrementVersion(Connection connection) throws SQLException, EventStoreException {
+            try (PreparedStatement updateVersion = schema.updateEventVersion(connection, entityId, startVersion,
+                    endVersion)) {
+                if (updateVersion.executeUpdate() != 1) {
+                    createVersion(connection);
+                }
+            }
+        }
+
+        void addBatch(PreparedStatement insertEvent) throws SQLException, EventStoreException {
+            for (Event event : events) {
+                prepareInsert(insertEvent, event);
+                insertEvent.addBatch();
+            }
+        }
+
+        private void createVersion(Connection connection) throws SQLException, EventStoreException {
+            try (PreparedStatement selectVersion = schema.selectEntityVersion(connection, entityId);
+                    ResultSet rs = selectVersion.executeQuery()) {
+                if (rs.next()) {
+                    throw EventStoreException.optimisticLock(entityId, schema.readEntityVersion(rs), startVersion);
+                }
+            }
+            // no entity version - create a new one.
+            try (PreparedStatement createVersion = schema.createEntityVersion(connection, entityId, endVersion)) {
+                createVersion.executeUpdate();
+            }
+        }
+
         private void updateVersion(PreparedStatement updateVersion) throws SQLException, EventStoreException {
             int result = updateVersion.executeUpdate();
             if (result != 1) {
@@ -159,10 +304,7 @@ public class JdbcEventStore<E> implements EventStore {
         }
 
         private void storeEvents(PreparedStatement insertEvent) throws SQLException, EventStoreException {
-            for (Event event : events) {
-                prepareInsert(insertEvent, event);
-                insertEvent.addBatch();
-            }
+            addBatch(insertEvent);
             insertEvent.executeBatch();
         }
 
@@ -190,6 +332,29 @@ public class JdbcEventStore<E> implements EventStore {
         void rollback(Connection connection) throws SQLException;
     }
 
+    /**
+     * Transactions managed locally on the connection.
+     */
+    static final TxHandler LOCAL_HANDLER = new TxHandler() {
+        @Override
+        public Connection enroll(Connection connection) throws SQLException {
+            connection.setAutoCommit(false);
+            return connection;
+        }
+
+        @Override
+        public void commit(Connection connection) throws SQLException {
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+
+        @Override
+        public void rollback(Connection connection) throws SQLException {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+    };
+
     private static TxHandler CONTAINER_HANDLER = new TxHandler() {
         @Override
         public Connection enroll(Connection connection) {
@@ -27,6 +27,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
 
 public abstract class JdbcSchema {
@@ -67,4 +69,153 @@ public abstract class JdbcSchema {
     protected abstract SnapshotMetadata readSnapshotMetadata(ResultSet rs) throws SQLException;
 
     protected abstract String readSnapshotPayload(ResultSet rs) throws SQLException;
+
+    /**
+     * Whether payloads are stored in binary columns. Stores then write payloads by
+     * {@link #prepareInsert(PreparedStatement, Event, int, byte[])},
+     * {@link #insertSnapshot(Connection, String, long, int, byte[])} and
+     * {@link #updateSnapshot(Connection, String, long, int, byte[])}, and read them by
+     * {@link #readEventPayloadBytes(ResultSet)} and {@link #readSnapshotPayloadBytes(ResultSet)}.
+     * @return true when payloads are binary
+     * @see BinaryJdbcSchema
+     * @see io.github.goodees.ese.store.BinarySerialization
+     */
+    protected boolean usesBinaryPayload() {
+        return false;
+    }
+
+    protected void prepareInsert(PreparedStatement insertEvent, Event event, int payloadVersion, byte[] payload)
+            throws SQLException {
+        throw new UnsupportedOperationException("Binary payload is not supported by " + getClass().getName());
+    }
+
+    protected byte[] readEventPayloadBytes(ResultSet rs) throws SQLException {
+        throw new UnsupportedOperationException("Binary payload is not supported by " + getClass().getName());
+    }
+
+    protected PreparedStatement updateSnapshot(Connection connection, String entityId, long stateVersion,
+            int payloadVersion, byte[] payload) throws SQLException {
+        throw new UnsupportedOperationException("Binary payload is not supported by " + getClass().getName());
+    }
+
+    protected PreparedStatement insertSnapshot(Connection connection, String entityId, long stateVersion,
+            int payloadVersion, byte[] payload) throws SQLException {
+        throw new UnsupportedOperationException("Binary payload is not supported by " + getClass().getName());
+    }
+
+    protected byte[] readSnapshotPayloadBytes(ResultSet rs) throws SQLException {
+        throw new UnsupportedOperationException("Binary payload is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Whether entity versions are kept in separate version table. Schemas without it detect concurrent writes by
+     * primary key of event table, and {@link #selectEntityVersion(Connection, String)} derives the version from
+     * events. Stores call {@link #createEntityVersion(Connection, String, long)} and
+     * {@link #updateEventVersion(Connection, String, long, long)} only when version table is used.
+     * @return true when version table is used
+     * @see EventKeyJdbcSchema
+     */
+    protected boolean usesVersionTable() {
+        return true;
+    }
+
+    /**
+     * Determine whether exception reports integrity constraint violation, that may be caused by violation of primary
+     * key, e. g. when event of the same version was inserted concurrently. As the same class of errors covers other
+     * constraints too, stores confirm the conflict by reading current version of the entity.
+     * @param e exception thrown while inserting events
+     * @return true when the exception, or any chained to it, is integrity constraint violation
+     */
+    protected boolean isDuplicateKey(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                for (SQLException ex = (SQLException) cause; ex != null; ex = ex.getNextException()) {
+                    // SQL standard class 23: integrity constraint violation
+                    if (ex.getSQLState() != null && ex.getSQLState().startsWith("23")) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maximum number of entities queried by single batched statement. Schemas that do not implement
+     * {@link #selectSnapshots(Connection, List)} and {@link #selectEvents(Connection, Map)} return zero, and stores
+     * query entities one by one.
+     * @return number of entities per statement, zero when batched queries are not supported
+     */
+    protected int getBatchSize() {
+        return 0;
+    }
+
+    /**
+     * Select snapshots of multiple entities. Result set is read by {@link #readSnapshotMetadata(ResultSet)} and
+     * {@link #readSnapshotPayload(ResultSet)}.
+     * @param connection the connection
+     * @param entityIds at most {@link #getBatchSize()} entity ids
+     * @return the statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    protected PreparedStatement selectSnapshots(Connection connection, List<String> entityIds) throws SQLException {
+        throw new UnsupportedOperationException("Batched snapshot query is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Select events of multiple entities, ordered by entity and version, so that events of every entity form
+     * continuous sequence. Result set is read like result of {@link #selectEvents(Connection, String, long)}, entity
+     * of every row is read by {@link #readEventEntityId(ResultSet)}.
+     * @param connection the connection
+     * @param afterVersions at most {@link #getBatchSize()} entity ids, with version to read events after
+     * @return the statement
+     * @throws SQLException when statement cannot be prepared
+     */
+    protected PreparedStatement selectEvents(Connection connection, Map<String, Long> afterVersions)
+            throws SQLException {
+        throw new UnsupportedOperationException("Batched event query is not supported by " + getClass().getName());
+    }
+
+    protected String readEventEntityId(ResultSet rs) throws SQLException {
+        throw new UnsupportedOperationException("Batched event query is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Whether events of single entity can be queried in pages. Schemas that do not implement
+     * {@link #selectEvents(Connection, String, long, int)} and {@link #readEventVersion(ResultSet)} return false, and
+     * event log reads all events of an entity by single query.
+     * @return true when paged queries are supported
+     * @see JdbcEventLog#paged(int)
+     */
+    protected boolean supportsPaging() {
+        return false;
+    }
+
+    /**
+     * Select at most {@code limit} events of an entity, ordered by version. Events are then read page by page, each
+     * page starting after last version of previous one. Result set is read like result of
+     * {@link #selectEvents(Connection, String, long)}.
+     * @param connection the connection
+     * @param entityId the entity
+     * @param afterVersion version to read events after
+     * @param limit maximum number of rows
+     * @return the statement
+     * @throws SQLException when statement cannot be prepared
+     * @see JdbcEventLog#paged(int)
+     */
+    protected PreparedStatement selectEvents(Connection connection, String entityId, long afterVersion, int limit)
+            throws SQLException {
+        throw new UnsupportedOperationException("Paged event query is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Read version of an event from result of {@link #selectEvents(Connection, String, long, int)}. Unlike
+     * {@link #readEntityVersion(ResultSet)}, that reads result of version query, this reads an event row.
+     * @param rs the result set
+     * @return the version of event
+     * @throws SQLException when column cannot be read
+     */
+    protected long readEventVersion(ResultSet rs) throws SQLException {
+        throw new UnsupportedOperationException("Paged event query is not supported by " + getClass().getName());
+    }
 }
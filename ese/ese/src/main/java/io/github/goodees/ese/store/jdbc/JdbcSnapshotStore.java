@@ -32,6 +32,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 
@@ -52,8 +57,7 @@ public class JdbcSnapshotStore<S> extends io.github.goodees.ese.store.SnapshotSt
                 PreparedStatement st = schema.selectSnapshot(connection, entityId);
                 ResultSet rs = st.executeQuery()) {
             if (rs.next()) {
-                SnapshotMetadata header = schema.readSnapshotMetadata(rs);
-                return new SnapshotRecord(header, schema.readSnapshotPayload(rs));
+                return readRecord(rs);
             } else {
                 return null;
             }
@@ -63,6 +67,33 @@ public class JdbcSnapshotStore<S> extends io.github.goodees.ese.store.SnapshotSt
         return null;
     }
 
+    /**
+     * Retrieve snapshots with one query per {@link JdbcSchema#getBatchSize()} entities, when schema supports it.
+     */
+    @Override
+    protected Map<String, SnapshotRecord> retrieveSnapshotRecords(Collection<String> entityIds) {
+        int batchSize = schema.getBatchSize();
+        if (batchSize <= 0) {
+            return super.retrieveSnapshotRecords(entityIds);
+        }
+        List<String> ids = new ArrayList<>(entityIds);
+        Map<String, SnapshotRecord> result = new HashMap<>();
+        try (Connection connection = ds.getConnection()) {
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                try (PreparedStatement st = schema.selectSnapshots(connection, ids.subList(i, Math.min(i + batchSize, ids.size())));
+                        ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        SnapshotRecord snapshotRecord = readRecord(rs);
+                        result.put(snapshotRecord.getHeader().entityId(), snapshotRecord);
+                    }
+                }
+            }
+        } catch (SQLException se) {
+            logger.error("Cannot read snapshots of {} entities", ids.size(), se);
+        }
+        return result;
+    }
+
     @Override
     protected void storeSnapshotRecord(SnapshotRecord snapshotRecord) {
         if (snapshotRecord != null) {
@@ -71,10 +102,7 @@ public class JdbcSnapshotStore<S> extends io.github.goodees.ese.store.SnapshotSt
             try (Connection connection = ds.getConnection();
                     PreparedStatement st = schema.selectSnapshot(connection, entityId);
                     ResultSet rs = st.executeQuery();
-                    PreparedStatement store = rs.next()
-                            ? schema.updateSnapshot(connection, entityId, sm.entityStateVersion(), sm.payloadVersion(),
-                                snapshotRecord.getPayload()) : schema.insertSnapshot(connection, entityId,
-                                sm.entityStateVersion(), sm.payloadVersion(), snapshotRecord.getPayload())) {
+                    PreparedStatement store = prepareStore(connection, rs.next(), snapshotRecord)) {
                 int result = store.executeUpdate();
                 if (result != 1) {
                     logger.error("Snapshot update did not create/update a row for entity {}", entityId);
@@ -85,4 +113,31 @@ public class JdbcSnapshotStore<S> extends io.github.goodees.ese.store.SnapshotSt
         }
 
     }
+
+    @Override
+    protected boolean storesBinaryPayload() {
+        return schema.usesBinaryPayload();
+    }
+
+    private SnapshotRecord readRecord(ResultSet rs) throws SQLException {
+        SnapshotMetadata header = schema.readSnapshotMetadata(rs);
+        return schema.usesBinaryPayload()
+                ? new BinarySnapshotRecord(header, schema.readSnapshotPayloadBytes(rs))
+                : new SnapshotRecord(header, schema.readSnapshotPayload(rs));
+    }
+
+    private PreparedStatement prepareStore(Connection connection, boolean exists, SnapshotRecord snapshotRecord)
+            throws SQLException {
+        SnapshotMetadata sm = snapshotRecord.getHeader();
+        if (schema.usesBinaryPayload()) {
+            byte[] bytes = getBinaryPayload(snapshotRecord);
+            return exists
+                    ? schema.updateSnapshot(connection, sm.entityId(), sm.entityStateVersion(), sm.payloadVersion(), bytes)
+                    : schema.insertSnapshot(connection, sm.entityId(), sm.entityStateVersion(), sm.payloadVersion(), bytes);
+        }
+        String payload = snapshotRecord.getPayload();
+        return exists
+                ? schema.updateSnapshot(connection, sm.entityId(), sm.entityStateVersion(), sm.payloadVersion(), payload)
+                : schema.insertSnapshot(connection, sm.entityId(), sm.entityStateVersion(), sm.payloadVersion(), payload);
+    }
 }
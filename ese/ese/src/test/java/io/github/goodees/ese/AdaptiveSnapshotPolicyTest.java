@@ -0,0 +1,131 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import io.github.goodees.ese.store.AsyncSnapshotWriter;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveSnapshotPolicyTest {
+
+    @Test
+    public void initial_interval_is_used_before_replay_is_measured() {
+        AdaptiveSnapshotPolicy policy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS).initialInterval(10);
+        assertFalse(policy.shouldSnapshot(9));
+        assertTrue(policy.shouldSnapshot(10));
+        assertEquals(10, policy.getCurrentInterval());
+    }
+
+    @Test
+    public void snapshot_when_replay_exceeds_budget() {
+        AdaptiveSnapshotPolicy policy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS);
+        // 100 µs per event
+        policy.recordRecovery(1000, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(100, policy.getReplayTimePerEvent(TimeUnit.MICROSECONDS), 0.001);
+        assertFalse(policy.shouldSnapshot(500));
+        assertTrue(policy.shouldSnapshot(501));
+        assertEquals(501, policy.getCurrentInterval());
+        assertEquals(1, policy.getSnapshotDecisions());
+        assertEquals(1, policy.getSkipDecisions());
+    }
+
+    @Test
+    public void expensive_snapshot_is_stored_less_often() {
+        AdaptiveSnapshotPolicy policy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS);
+        policy.recordRecovery(1000, TimeUnit.MILLISECONDS.toNanos(100));
+        policy.recordSnapshotWrite(TimeUnit.MILLISECONDS.toNanos(200));
+        assertFalse(policy.shouldSnapshot(1000));
+        assertTrue(policy.shouldSnapshot(2001));
+    }
+
+    @Test
+    public void slower_replay_is_reflected_faster_than_faster_one() {
+        AdaptiveSnapshotPolicy policy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS);
+        policy.recordRecovery(100, 100_000);
+        policy.recordRecovery(100, 300_000);
+        double risen = policy.getReplayTimePerEvent(TimeUnit.NANOSECONDS);
+        assertEquals(2000, risen, 0.001);
+        policy.recordRecovery(100, 100_000);
+        assertTrue(policy.getReplayTimePerEvent(TimeUnit.NANOSECONDS) > 1500);
+    }
+
+    @Test
+    public void runtime_reports_background_snapshot_writes() throws Exception {
+        AdaptiveSnapshotPolicy policy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS);
+        EntityRecoveryTest.RecoveringRuntime runtime = new EntityRecoveryTest.RecoveringRuntime() {
+            private final AsyncSnapshotWriter writer = new AsyncSnapshotWriter(snapshotStore, Runnable::run, 10);
+
+            @Override
+            protected AdaptiveSnapshotPolicy getSnapshotPolicy() {
+                return policy;
+            }
+
+            @Override
+            protected AsyncSnapshotWriter getSnapshotWriter() {
+                return writer;
+            }
+
+            @Override
+            protected boolean shouldStoreSnapshot(SyncTestEntity entity, int eventsSinceSnapshot) {
+                return true;
+            }
+        };
+        try {
+            runtime.execute("written", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+            assertEquals(1, runtime.getSnapshotWriter().getWrittenCount());
+            assertTrue(policy.getSnapshotWriteTime(TimeUnit.NANOSECONDS) > 0);
+        } finally {
+            runtime.executor.shutdownNow();
+            runtime.recoveryExecutor.shutdownNow();
+            runtime.scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runtime_reports_recoveries() throws Exception {
+        AdaptiveSnapshotPolicy policy = new AdaptiveSnapshotPolicy(50, TimeUnit.MILLISECONDS);
+        EntityRecoveryTest.RecoveringRuntime runtime = new EntityRecoveryTest.RecoveringRuntime() {
+            @Override
+            protected AdaptiveSnapshotPolicy getSnapshotPolicy() {
+                return policy;
+            }
+        };
+        try {
+            for (int i = 0; i < 3; i++) {
+                runtime.execute("measured", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+            }
+            assertTrue(runtime.passivate("measured"));
+            runtime.lookup("measured");
+            assertEquals(2, policy.getRecoveryCount());
+            assertTrue(policy.getReplayTimePerEvent(TimeUnit.NANOSECONDS) > 0);
+        } finally {
+            runtime.executor.shutdownNow();
+            runtime.recoveryExecutor.shutdownNow();
+            runtime.scheduler.shutdownNow();
+        }
+    }
+}
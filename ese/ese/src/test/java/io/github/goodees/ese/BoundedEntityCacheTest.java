@@ -0,0 +1,219 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import io.github.goodees.ese.store.EventLog;
+import io.github.goodees.ese.store.SnapshotStore;
+import io.github.goodees.ese.store.inmemory.InMemorySnapshotStore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BoundedEntityCacheTest {
+    private MockEventStore eventStore = new MockEventStore();
+    private List<String> passivationRequests = new CopyOnWriteArrayList<>();
+
+    private EventSourcedEntity entity(String id) {
+        return MockEntities.entityWithSnapshot(eventStore, id, 0, null);
+    }
+
+    @Test
+    public void least_recently_used_entities_are_passivated_over_capacity() throws InterruptedException {
+        BoundedEntityCache<EventSourcedEntity> cut = new BoundedEntityCache<>(10, 0, TimeUnit.SECONDS,
+            passivationRequests::add);
+        for (int i = 0; i < 10; i++) {
+            cut.computeIfAbsent("e" + i, this::entity);
+            Thread.sleep(1);
+        }
+        assertTrue(passivationRequests.isEmpty());
+        // e0 is used again, so e1 and e2 are the least recently used
+        cut.get("e0");
+        cut.computeIfAbsent("e10", this::entity);
+        assertEquals(2, passivationRequests.size());
+        assertTrue(passivationRequests.containsAll(Arrays.asList("e1", "e2")));
+        assertEquals(2, cut.getPendingPassivations());
+
+        assertNotNull(cut.removeForPassivation("e1"));
+        assertNotNull(cut.removeForPassivation("e2"));
+        assertEquals(9, cut.size());
+        assertEquals(0, cut.getPendingPassivations());
+    }
+
+    @Test
+    public void entities_used_after_passivation_request_are_kept() {
+        BoundedEntityCache<EventSourcedEntity> cut = new BoundedEntityCache<>(1, 0, TimeUnit.SECONDS,
+            passivationRequests::add);
+        EventSourcedEntity first = cut.computeIfAbsent("first", this::entity);
+        cut.computeIfAbsent("second", this::entity);
+        assertEquals(1, passivationRequests.size());
+        String requested = passivationRequests.get(0);
+        cut.get(requested);
+        assertNull(cut.removeForPassivation(requested));
+        assertEquals(2, cut.size());
+        assertSame(first, cut.get("first"));
+    }
+
+    @Test
+    public void idle_entities_are_passivated() throws InterruptedException {
+        BoundedEntityCache<EventSourcedEntity> cut = new BoundedEntityCache<>(Integer.MAX_VALUE, 5,
+            TimeUnit.MILLISECONDS, passivationRequests::add);
+        cut.computeIfAbsent("idle", this::entity);
+        cut.sweep();
+        assertTrue(passivationRequests.isEmpty());
+        Thread.sleep(10);
+        cut.computeIfAbsent("active", this::entity);
+        cut.sweep();
+        assertEquals(1, passivationRequests.size());
+        assertEquals("idle", passivationRequests.get(0));
+    }
+
+    @Test
+    public void idle_entities_are_found_on_access() throws InterruptedException {
+        BoundedEntityCache<EventSourcedEntity> cut = new BoundedEntityCache<>(Integer.MAX_VALUE, 5,
+            TimeUnit.MILLISECONDS, passivationRequests::add);
+        cut.computeIfAbsent("idle", this::entity);
+        cut.computeIfAbsent("active", this::entity);
+        // sweep runs at most once per second
+        Thread.sleep(1100);
+        cut.get("active");
+        assertEquals(Arrays.asList("idle"), passivationRequests);
+    }
+
+    @Test
+    public void capacity_sweeps_are_limited_while_passivations_are_cancelled() {
+        BoundedEntityCache<EventSourcedEntity> cut = new BoundedEntityCache<>(1, 0, TimeUnit.SECONDS,
+            passivationRequests::add);
+        cut.computeIfAbsent("first", this::entity);
+        cut.computeIfAbsent("second", this::entity);
+        assertEquals(1, passivationRequests.size());
+        // every access cancels passivation of the entity, so the cache stays over capacity
+        for (int i = 0; i < 1000; i++) {
+            cut.get("first");
+            cut.get("second");
+        }
+        assertEquals(2, cut.size());
+        assertTrue("Sweeps should be limited, got " + passivationRequests.size() + " passivation requests",
+            passivationRequests.size() < 100);
+    }
+
+    @Test
+    public void cancelled_passivation_is_not_pending() {
+        BoundedEntityCache<EventSourcedEntity> cut = new BoundedEntityCache<>(1, 0, TimeUnit.SECONDS,
+            passivationRequests::add);
+        cut.computeIfAbsent("first", this::entity);
+        cut.computeIfAbsent("second", this::entity);
+        assertEquals(1, cut.getPendingPassivations());
+        cut.cancelPassivation(passivationRequests.get(0));
+        assertEquals(0, cut.getPendingPassivations());
+        assertNull(cut.removeForPassivation(passivationRequests.get(0)));
+    }
+
+    static class PassivatingRuntime extends SyncEventSourcingRuntime<SyncTestEntity> {
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        private final MockEventStore eventStore = new MockEventStore();
+        private final InMemorySnapshotStore snapshotStore = new InMemorySnapshotStore();
+        private final Map<String, SyncTestEntity> disposed = new ConcurrentHashMap<>();
+
+        @Override
+        protected ExecutorService getExecutorService() {
+            return executor;
+        }
+
+        @Override
+        protected ScheduledExecutorService getScheduler() {
+            return scheduler;
+        }
+
+        @Override
+        protected String getEntityName() {
+            return "PassivatingEntity";
+        }
+
+        @Override
+        protected EntityCache<SyncTestEntity> createEntityCache() {
+            return new BoundedEntityCache<>(1, 0, TimeUnit.SECONDS, this::requestPassivation);
+        }
+
+        @Override
+        protected boolean shouldSnapshotOnPassivation(SyncTestEntity entity, int eventsSinceSnapshot) {
+            return true;
+        }
+
+        @Override
+        protected SyncTestEntity instantiate(String entityId) {
+            return new SyncTestEntity(eventStore, entityId, true);
+        }
+
+        @Override
+        protected void dispose(SyncTestEntity entity) {
+            disposed.put(entity.getIdentity(), entity);
+        }
+
+        @Override
+        protected SnapshotStore getSnapshotStore() {
+            return snapshotStore;
+        }
+
+        @Override
+        protected EventLog getEventLog() {
+            return eventStore;
+        }
+
+        @Override
+        protected boolean shouldStoreSnapshot(SyncTestEntity entity, int eventsSinceSnapshot) {
+            return false;
+        }
+    }
+
+    @Test
+    public void runtime_passivates_and_snapshots_evicted_entities() throws Exception {
+        PassivatingRuntime runtime = new PassivatingRuntime();
+        try {
+            runtime.execute("first", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+            runtime.execute("second", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+            for (int i = 0; i < 100 && !runtime.disposed.containsKey("first"); i++) {
+                Thread.sleep(1);
+            }
+            assertTrue("Least recently used entity should be disposed", runtime.disposed.containsKey("first"));
+            assertEquals(1, runtime.getEntityCache().size());
+            assertEquals(1, runtime.snapshotStore.getSnapshottedVersion("first"));
+            // entity is recovered on next request
+            TestRequests.StatusProbe probe = runtime.execute("first", new TestRequests.GetProbe())
+                    .get(1, TimeUnit.SECONDS);
+            probe.assertAcceptedSnapshot(true);
+        } finally {
+            runtime.executor.shutdown();
+            runtime.scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import io.github.goodees.ese.store.EventLog;
+import io.github.goodees.ese.store.SnapshotStore;
+import io.github.goodees.ese.store.inmemory.InMemorySnapshotStore;
+import io.github.goodees.ese.dispatch.AffineDispatcher;
+import io.github.goodees.ese.dispatch.Dispatcher;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EntityRecoveryTest {
+    private final RecoveringRuntime runtime = new RecoveringRuntime();
+
+    @After
+    public void shutdown() {
+        runtime.recoveryGate.countDown();
+        runtime.executor.shutdownNow();
+        runtime.recoveryExecutor.shutdownNow();
+        runtime.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void concurrent_lookups_share_single_recovery() throws Exception {
+        CompletableFuture<SyncTestEntity> first = runtime.lookupAsync("slow", runtime.recoveryExecutor);
+        CompletableFuture<SyncTestEntity> second = runtime.lookupAsync("slow", runtime.recoveryExecutor);
+        assertTrue(runtime.recoveryStarted.await(1, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+
+        runtime.recoveryGate.countDown();
+        assertSame(first.get(1, TimeUnit.SECONDS), second.get(1, TimeUnit.SECONDS));
+        assertSame(first.get(), runtime.lookup("slow"));
+        assertEquals(1, runtime.instantiations.get());
+    }
+
+    @Test
+    public void slow_recovery_does_not_block_other_entities() throws Exception {
+        // single executor thread, that would be blocked by recovery without recovery executor
+        CompletableFuture<TestRequests.StatusProbe> slow = runtime.execute("slow", new TestRequests.GetProbe());
+        assertTrue(runtime.recoveryStarted.await(1, TimeUnit.SECONDS));
+
+        assertNotNull(runtime.execute("fast", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+
+        runtime.recoveryGate.countDown();
+        assertNotNull(slow.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void recovered_entity_is_invoked_on_its_lane() throws Exception {
+        List<String> invocationThreads = new CopyOnWriteArrayList<>();
+        RecoveringRuntime affine = new RecoveringRuntime() {
+            @Override
+            protected Dispatcher createDispatcher() {
+                return new AffineDispatcher(getDispatcherConfiguration(), 1);
+            }
+
+            @Override
+            protected <RS, R extends Request<RS>> void invokeEntity(SyncTestEntity entity, R request,
+                    BiConsumer<RS, Throwable> callback) throws Exception {
+                invocationThreads.add(Thread.currentThread().getName());
+                super.invokeEntity(entity, request, callback);
+            }
+        };
+        try {
+            CompletableFuture<TestRequests.StatusProbe> slow = affine.execute("slow", new TestRequests.GetProbe());
+            assertTrue(affine.recoveryStarted.await(1, TimeUnit.SECONDS));
+            affine.recoveryGate.countDown();
+            assertNotNull(slow.get(1, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("RecoveringEntity-lane-0"), invocationThreads);
+        } finally {
+            affine.getDispatcher().shutdown();
+            affine.executor.shutdownNow();
+            affine.recoveryExecutor.shutdownNow();
+            affine.scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shutdown_releases_dispatcher() throws Exception {
+        RecoveringRuntime affine = new RecoveringRuntime() {
+            @Override
+            protected Dispatcher createDispatcher() {
+                return new AffineDispatcher(getDispatcherConfiguration(), 1);
+            }
+        };
+        try {
+            affine.recoveryGate.countDown();
+            assertNotNull(affine.execute("fast", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS));
+            affine.shutdown();
+            assertTrue(((AffineDispatcher) affine.getDispatcher()).awaitTermination(1, TimeUnit.SECONDS));
+        } finally {
+            affine.executor.shutdownNow();
+            affine.recoveryExecutor.shutdownNow();
+            affine.scheduler.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shut_down_runtime_does_not_create_dispatcher() {
+        runtime.shutdown();
+        runtime.execute("late", new TestRequests.GetProbe());
+    }
+
+    @Test
+    public void rejected_invocation_after_recovery_fails_request() throws Exception {
+        CompletableFuture<TestRequests.StatusProbe> slow = runtime.execute("slow", new TestRequests.GetProbe());
+        assertTrue(runtime.recoveryStarted.await(1, TimeUnit.SECONDS));
+        // let the mailbox turn finish, so that it does not see the entity recovered
+        runtime.executor.shutdown();
+        assertTrue(runtime.executor.awaitTermination(1, TimeUnit.SECONDS));
+        runtime.recoveryGate.countDown();
+        try {
+            slow.get(1, TimeUnit.SECONDS);
+            fail("Invocation should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void failed_recovery_is_reported_and_retried() throws Exception {
+        runtime.failRecovery = true;
+        runtime.recoveryGate.countDown();
+        try {
+            runtime.execute("failing", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+            fail("Recovery should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        runtime.failRecovery = false;
+        assertNotNull(runtime.execute("failing", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS));
+        assertEquals(2, runtime.instantiations.get());
+    }
+
+    @Test
+    public void warm_up_recovers_entities_in_batches() throws Exception {
+        List<String> ids = IntStream.range(0, 25).mapToObj(i -> "warm" + i).collect(Collectors.toList());
+        assertEquals(25, runtime.warmUp(ids, runtime.recoveryExecutor, 2).get(1, TimeUnit.SECONDS).intValue());
+        assertEquals(25, runtime.getEntityCache().size());
+        assertEquals(3, runtime.snapshotStore.batchRetrievals.get());
+
+        runtime.lookup("warm7");
+        assertEquals(25, runtime.instantiations.get());
+        // second warm up finds everything in memory already
+        assertEquals(0, runtime.warmUp(ids, runtime.recoveryExecutor, 2).get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void hot_entity_ids_survive_restart() throws Exception {
+        runtime.recoveryGate.countDown();
+        runtime.execute("hot1", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+        runtime.execute("hot2", new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+        Path file = Files.createTempFile("hot", ".txt");
+        try {
+            runtime.saveHotEntityIds(file, 10);
+            List<String> hot = EventSourcingRuntimeBase.loadHotEntityIds(file);
+            assertEquals(new HashSet<>(Arrays.asList("hot1", "hot2")), new HashSet<>(hot));
+
+            RecoveringRuntime restarted = new RecoveringRuntime();
+            assertEquals(2, restarted.warmUp(hot, Runnable::run, 1).get().intValue());
+            assertEquals(2, restarted.getEntityCache().size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static class CountingSnapshotStore extends InMemorySnapshotStore {
+        final AtomicInteger batchRetrievals = new AtomicInteger();
+
+        @Override
+        protected Map<String, SnapshotRecord> retrieveSnapshotRecords(Collection<String> entityIds) {
+            batchRetrievals.incrementAndGet();
+            return super.retrieveSnapshotRecords(entityIds);
+        }
+    }
+
+    static class RecoveringRuntime extends SyncEventSourcingRuntime<SyncTestEntity> {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ExecutorService recoveryExecutor = Executors.newCachedThreadPool();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final MockEventStore eventStore = new MockEventStore();
+        final CountingSnapshotStore snapshotStore = new CountingSnapshotStore();
+        final CountDownLatch recoveryStarted = new CountDownLatch(1);
+        final CountDownLatch recoveryGate = new CountDownLatch(1);
+        final AtomicInteger instantiations = new AtomicInteger();
+        volatile boolean failRecovery;
+
+        @Override
+        protected ExecutorService getExecutorService() {
+            return executor;
+        }
+
+        @Override
+        protected ScheduledExecutorService getScheduler() {
+            return scheduler;
+        }
+
+        @Override
+        protected Executor getRecoveryExecutor() {
+            return recoveryExecutor;
+        }
+
+        @Override
+        protected String getEntityName() {
+            return "RecoveringEntity";
+        }
+
+        @Override
+        protected int getWarmUpBatchSize() {
+            return 10;
+        }
+
+        @Override
+        protected long retryDelay(String id, Request<?> request, Throwable error, int attempts) {
+            return RETRY_NEVER;
+        }
+
+        @Override
+        protected SyncTestEntity instantiate(String entityId) {
+            instantiations.incrementAndGet();
+            if (failRecovery) {
+                throw new IllegalStateException("Recovery failed");
+            }
+            if (entityId.equals("slow")) {
+                recoveryStarted.countDown();
+                try {
+                    recoveryGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new SyncTestEntity(eventStore, entityId, true);
+        }
+
+        @Override
+        protected void dispose(SyncTestEntity entity) {
+        }
+
+        @Override
+        protected SnapshotStore getSnapshotStore() {
+            return snapshotStore;
+        }
+
+        @Override
+        protected EventLog getEventLog() {
+            return eventStore;
+        }
+
+        @Override
+        protected boolean shouldStoreSnapshot(SyncTestEntity entity, int eventsSinceSnapshot) {
+            return false;
+        }
+    }
+}
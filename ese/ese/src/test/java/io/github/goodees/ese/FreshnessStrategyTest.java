@@ -0,0 +1,185 @@
+package io.github.goodees.ese;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import io.github.goodees.ese.store.EventLog;
+import io.github.goodees.ese.store.SnapshotStore;
+import io.github.goodees.ese.store.inmemory.InMemorySnapshotStore;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class FreshnessStrategyTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger verifications = new AtomicInteger();
+    private final MockEventStore eventStore = new MockEventStore() {
+        @Override
+        public boolean confirmsEntityReflectsCurrentState(EventSourcedEntity entity) {
+            verifications.incrementAndGet();
+            return super.confirmsEntityReflectsCurrentState(entity);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        scheduler.shutdown();
+    }
+
+    class Runtime extends SyncEventSourcingRuntime<SyncTestEntity> {
+        private final FreshnessStrategy strategy;
+        private final InMemorySnapshotStore snapshotStore = new InMemorySnapshotStore();
+
+        Runtime(FreshnessStrategy strategy) {
+            this.strategy = strategy;
+        }
+
+        @Override
+        protected FreshnessStrategy getFreshnessStrategy() {
+            return strategy;
+        }
+
+        @Override
+        protected ExecutorService getExecutorService() {
+            return executor;
+        }
+
+        @Override
+        protected ScheduledExecutorService getScheduler() {
+            return scheduler;
+        }
+
+        @Override
+        protected String getEntityName() {
+            return "FreshnessEntity";
+        }
+
+        @Override
+        protected SyncTestEntity instantiate(String entityId) {
+            return new SyncTestEntity(eventStore, entityId, true);
+        }
+
+        @Override
+        protected void dispose(SyncTestEntity entity) {
+        }
+
+        @Override
+        protected SnapshotStore getSnapshotStore() {
+            return snapshotStore;
+        }
+
+        @Override
+        protected EventLog getEventLog() {
+            return eventStore;
+        }
+
+        @Override
+        protected boolean shouldStoreSnapshot(SyncTestEntity entity, int eventsSinceSnapshot) {
+            return false;
+        }
+
+        TestRequests.StatusProbe probe(String id) throws Exception {
+            return execute(id, new TestRequests.GetProbe()).get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void default_strategy_verifies_every_request() throws Exception {
+        Runtime runtime = new Runtime(FreshnessStrategy.ALWAYS);
+        for (int i = 0; i < 5; i++) {
+            runtime.probe("always");
+        }
+        assertEquals(5, verifications.get());
+    }
+
+    @Test
+    public void sole_writer_never_verifies() throws Exception {
+        Runtime runtime = new Runtime(FreshnessStrategy.SOLE_WRITER);
+        for (int i = 0; i < 5; i++) {
+            runtime.probe("sole_writer");
+        }
+        assertEquals(0, verifications.get());
+    }
+
+    @Test
+    public void staleness_window_verifies_after_window_passes() throws Exception {
+        Runtime runtime = new Runtime(FreshnessStrategy.stalenessWindow(50, TimeUnit.MILLISECONDS));
+        runtime.probe("window");
+        runtime.probe("window");
+        assertEquals(0, verifications.get());
+        Thread.sleep(60);
+        runtime.probe("window");
+        runtime.probe("window");
+        assertEquals(1, verifications.get());
+    }
+
+    @Test
+    public void change_notification_triggers_verification_and_recovery() throws Exception {
+        ChangeNotificationFreshness notifications = new ChangeNotificationFreshness();
+        Runtime runtime = new Runtime(notifications);
+        runtime.probe("notified");
+        // another writer appends an event
+        SyncTestEntity other = runtime.instantiate("notified");
+        runtime.snapshotStore.recover(other, eventStore, EventSourcingRuntimeBase.RECOVERY_STATE_HANDLER);
+        eventStore.persist(new TestRequests.DummyRecoveredEvent(other));
+        notifications.entityChanged("notified");
+
+        TestRequests.StatusProbe probe = runtime.probe("notified");
+        assertEquals(1, verifications.get());
+        assertEquals(0, notifications.getPendingCount());
+        // probe reflects the state before its own event: one own probe and one foreign event
+        assertEquals(2, probe.entityVersion);
+        runtime.probe("notified");
+        assertEquals(1, verifications.get());
+    }
+
+    @Test
+    public void pending_notifications_are_bounded() throws Exception {
+        ChangeNotificationFreshness notifications = new ChangeNotificationFreshness(2);
+        Runtime runtime = new Runtime(notifications);
+        runtime.probe("cached");
+        // notifications about entities, that are never looked up
+        notifications.entityChanged("other1");
+        notifications.entityChanged("other2");
+        assertEquals(2, notifications.getPendingCount());
+        notifications.entityChanged("other3");
+        assertEquals(0, notifications.getPendingCount());
+
+        // cached entity might have been among dropped notifications
+        runtime.probe("cached");
+        assertEquals(1, verifications.get());
+        runtime.probe("cached");
+        assertEquals(1, verifications.get());
+        // notifications after the overflow are kept
+        notifications.entityChanged("cached");
+        runtime.probe("cached");
+        assertEquals(2, verifications.get());
+    }
+}
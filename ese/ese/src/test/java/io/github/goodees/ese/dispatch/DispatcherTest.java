@@ -34,11 +34,14 @@ import org.junit.rules.ErrorCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
@@ -150,6 +153,16 @@ public class DispatcherTest {
 
     static class SimpleConfig implements DispatcherConfiguration {
         private ConcurrentMap<String, Counter> instances = new ConcurrentHashMap<>();
+        int throughput = 1;
+        int mailboxCapacity = Integer.MAX_VALUE;
+        int maxInFlight = Integer.MAX_VALUE;
+        OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+        long backpressureTimeout = 1000;
+        boolean virtualThreads;
+        long timerTickDuration;
+        long mailboxReclaimInterval;
+        String gatedId;
+        CompletableFuture<?> gate = CompletableFuture.completedFuture(null);
 
         public Counter lookup(String id) {
             return instances.computeIfAbsent(id, Counter::new);
@@ -172,13 +185,83 @@ public class DispatcherTest {
 
         @Override
         public <R extends Request<RS>, RS> void execute(String id, R request, BiConsumer<RS, Throwable> callback) {
-            lookup(id).execute(request).whenComplete(callback);
+            if (id.equals(gatedId)) {
+                gate.thenCompose(x -> lookup(id).execute(request)).whenComplete(callback);
+            } else {
+                lookup(id).execute(request).whenComplete(callback);
+            }
         }
 
         @Override
         public long retryDelay(String id, Request<?> request, Throwable t, int completedAttempts) {
             return completedAttempts < 5 ? immediateRetries ? RETRY_NOW : 30 : RETRY_NEVER;
         }
+
+        @Override
+        public int throughput() {
+            return throughput;
+        }
+
+        @Override
+        public int mailboxCapacity() {
+            return mailboxCapacity;
+        }
+
+        @Override
+        public int maxInFlight() {
+            return maxInFlight;
+        }
+
+        @Override
+        public OverflowPolicy overflowPolicy() {
+            return overflowPolicy;
+        }
+
+        @Override
+        public long backpressureTimeout() {
+            return backpressureTimeout;
+        }
+
+        @Override
+        public boolean virtualThreads() {
+            return virtualThreads;
+        }
+
+        @Override
+        public long timerTickDuration() {
+            return timerTickDuration;
+        }
+
+        @Override
+        public long mailboxReclaimInterval() {
+            return mailboxReclaimInterval;
+        }
+    }
+
+    static class TurnCountingConfig extends SimpleConfig {
+        private final AtomicInteger turns = new AtomicInteger();
+        private final ExecutorService executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                turns.incrementAndGet();
+            }
+        };
+
+        @Override
+        public ExecutorService executorService() {
+            return executor;
+        }
+    }
+
+    static class ThreadRecordingConfig extends SimpleConfig {
+        private final ConcurrentMap<String, Set<String>> threads = new ConcurrentHashMap<>();
+
+        @Override
+        public <R extends Request<RS>, RS> void execute(String id, R request, BiConsumer<RS, Throwable> callback) {
+            threads.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+            super.execute(id, request, callback);
+        }
     }
 
     private SimpleConfig conf = new SimpleConfig();
@@ -236,6 +319,46 @@ public class DispatcherTest {
 
     @Test
     public void stressTest() throws InterruptedException {
+        runStressTest();
+    }
+
+    @Test
+    public void stress_test_with_concurrent_mailbox_reclamation() throws InterruptedException {
+        ScheduledFuture<?> reclamation = scheduler.scheduleWithFixedDelay(cut::reclaimIdleMailboxes, 0, 1,
+            TimeUnit.MILLISECONDS);
+        try {
+            runStressTest();
+        } finally {
+            reclamation.cancel(false);
+        }
+    }
+
+    @Test
+    public void stress_test_with_batched_turns() throws InterruptedException {
+        conf.throughput = 8;
+        runStressTest();
+    }
+
+    @Test
+    public void stress_test_with_affine_lanes() throws InterruptedException {
+        AffineDispatcher affine = new AffineDispatcher(conf, 2);
+        cut = affine;
+        try {
+            runStressTest();
+        } finally {
+            affine.shutdown();
+        }
+    }
+
+    @Test
+    public void stress_test_with_virtual_threads() throws InterruptedException {
+        // falls back to executor service on runtimes without virtual threads
+        conf.virtualThreads = true;
+        cut = new Dispatcher(conf);
+        runStressTest();
+    }
+
+    private void runStressTest() throws InterruptedException {
         // we'll run 8 clients in parallel, changing state of fewer entities than there are clients
         // these entities are dispatched to even smaller thread pool.
         Client[] clients = new Client[8];
@@ -283,6 +406,95 @@ public class DispatcherTest {
         assertThat(completed+cancelled, Matchers.equalTo(100));
     }
 
+    @Test
+    public void timing_wheel_handles_timeouts_and_delayed_requests() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        requestsMayFail = false;
+        conf.timerTickDuration = 1;
+        cut = new Dispatcher(conf);
+        try {
+            CompletableFuture<Integer> delayed = cut.executeLater("wheel", Command.INCREMENT, 20,
+                TimeUnit.MILLISECONDS);
+            List<CompletableFuture<Integer>> result = Stream.generate(() -> cut.executeWithTimeout("wheel", Command.WAIT,
+                    50, TimeUnit.MILLISECONDS))
+                    .limit(50)
+                    .collect(toList());
+            long cancelled = result.stream().filter(r -> {
+                try {
+                    r.get(1, TimeUnit.SECONDS);
+                    return false;
+                } catch (CancellationException e) {
+                    return true;
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }).count();
+            assertThat(cancelled, Matchers.greaterThanOrEqualTo(30L));
+            assertEquals(1, delayed.get(1, TimeUnit.SECONDS).intValue());
+        } finally {
+            cut.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown_of_timing_wheel_completes_pending_requests() throws InterruptedException,
+            ExecutionException, TimeoutException {
+        conf.timerTickDuration = 1;
+        cut = new Dispatcher(conf);
+        CompletableFuture<Integer> executing = startGated("wheel_shutdown");
+        CompletableFuture<Integer> timed = cut.executeWithTimeout("wheel_shutdown", Command.INCREMENT, 1,
+            TimeUnit.MINUTES);
+        CompletableFuture<Integer> delayed = cut.executeLater("wheel_shutdown_delayed", Command.INCREMENT, 1,
+            TimeUnit.MINUTES);
+        cut.shutdown();
+        try {
+            timed.get(100, TimeUnit.MILLISECONDS);
+            fail("Pending timeout should have cancelled the request");
+        } catch (CancellationException e) {
+            // expected
+        }
+        try {
+            delayed.get(100, TimeUnit.MILLISECONDS);
+            fail("Pending delayed request should have been rejected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), Matchers.instanceOf(RejectedExecutionException.class));
+        }
+        // rejected delayed request no longer holds its mailbox
+        assertEquals(1, cut.reclaimIdleMailboxes());
+
+        conf.gate.complete(null);
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(1, awaitReclamation(1));
+    }
+
+    @Test
+    public void timeouts_and_retries_after_shutdown_are_rejected() throws InterruptedException, TimeoutException {
+        requestsMayFail = false;
+        immediateRetries = false;
+        conf.timerTickDuration = 1;
+        conf.maxInFlight = 10;
+        cut = new Dispatcher(conf);
+        cut.shutdown();
+        assertThat(failure(cut.executeWithTimeout("stopped", Command.INCREMENT, 1, TimeUnit.MINUTES)),
+            Matchers.instanceOf(RejectedExecutionException.class));
+        assertEquals(0, cut.getQueueDepth("stopped"));
+        // retry of failed request cannot be scheduled anymore
+        assertThat(failure(cut.execute("stopped_retry", Command.FAIL)),
+            Matchers.instanceOf(RejectedExecutionException.class));
+        assertEquals(0, cut.getInFlightCount());
+        assertEquals(2, awaitReclamation(2));
+    }
+
+    private static Throwable failure(CompletableFuture<?> result) throws InterruptedException, TimeoutException {
+        try {
+            result.get(100, TimeUnit.MILLISECONDS);
+            fail("Request should have failed");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
     @Test
     public void scheduled_calls_are_executed_after_immediate_requests() throws InterruptedException,
             ExecutionException, TimeoutException {
@@ -304,4 +516,281 @@ public class DispatcherTest {
         result.get(110, TimeUnit.MILLISECONDS);
     }
 
+    @Test
+    public void idle_mailboxes_are_reclaimed() throws InterruptedException, ExecutionException, TimeoutException {
+        requestsMayFail = false;
+        for (int i = 0; i < 10; i++) {
+            cut.execute("reclaimed" + i, Command.INCREMENT).get(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(10, cut.getMailboxCount());
+        // mailbox is released only after the response completes
+        assertThat(awaitReclamation(10), Matchers.equalTo(10));
+        assertEquals(0, cut.getMailboxCount());
+        // new mailbox is created for next request
+        assertEquals(2, cut.execute("reclaimed0", Command.INCREMENT).get(100, TimeUnit.MILLISECONDS).intValue());
+    }
+
+    @Test
+    public void mailboxes_with_delayed_invocations_are_not_reclaimed() throws InterruptedException,
+            ExecutionException, TimeoutException {
+        requestsMayFail = false;
+        CompletableFuture<Integer> result = cut.executeLater("delayed", Command.INCREMENT, 50, TimeUnit.MILLISECONDS);
+        assertEquals(0, cut.reclaimIdleMailboxes());
+        assertEquals(1, result.get(200, TimeUnit.MILLISECONDS).intValue());
+        assertThat(awaitReclamation(1), Matchers.equalTo(1));
+    }
+
+    @Test
+    public void periodic_reclamation_stops_on_shutdown() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        requestsMayFail = false;
+        conf.mailboxReclaimInterval = 5;
+        cut = new Dispatcher(conf);
+        cut.execute("periodic", Command.INCREMENT).get(100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100 && cut.getMailboxCount() > 0; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, cut.getMailboxCount());
+
+        cut.shutdown();
+        cut.execute("periodic", Command.INCREMENT).get(100, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertEquals(1, cut.getMailboxCount());
+    }
+
+    @Test
+    public void synchronous_invocations_are_processed_in_single_turn() throws InterruptedException,
+            ExecutionException, TimeoutException {
+        assertEquals(2, countTurnsOfQueuedIncrements(16));
+        // one turn for the wait, one for it's completion and then one for every increment
+        assertEquals(12, countTurnsOfQueuedIncrements(1));
+        // turn yields after throughput is reached
+        assertEquals(4, countTurnsOfQueuedIncrements(5));
+    }
+
+    private int countTurnsOfQueuedIncrements(int throughput) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        requestsMayFail = false;
+        TurnCountingConfig turnConf = new TurnCountingConfig();
+        turnConf.throughput = throughput;
+        Dispatcher dispatcher = new Dispatcher(turnConf);
+        String id = "batched" + throughput;
+        try {
+            // the wait completes asynchronously, increments get queued in the meantime
+            CompletableFuture<Integer> wait = dispatcher.execute(id, Command.WAIT);
+            CompletableFuture<Integer> last = null;
+            for (int i = 0; i < 10; i++) {
+                last = dispatcher.execute(id, Command.INCREMENT);
+            }
+            assertEquals(0, wait.get(100, TimeUnit.MILLISECONDS).intValue());
+            assertEquals(10, last.get(100, TimeUnit.MILLISECONDS).intValue());
+            // the last turn may still be running after the response completed, mailbox is idle only after it
+            for (int i = 0; i < 100 && dispatcher.reclaimIdleMailboxes() == 0; i++) {
+                Thread.sleep(1);
+            }
+            return turnConf.turns.get();
+        } finally {
+            turnConf.executor.shutdown();
+        }
+    }
+
+    @Test
+    public void requests_exceeding_mailbox_capacity_are_rejected() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        conf.mailboxCapacity = 2;
+        cut = new Dispatcher(conf);
+        CompletableFuture<Integer> executing = startGated("reject");
+        CompletableFuture<Integer> first = cut.execute("reject", Command.INCREMENT);
+        CompletableFuture<Integer> second = cut.execute("reject", Command.INCREMENT);
+        CompletableFuture<Integer> rejected = cut.execute("reject", Command.INCREMENT);
+        assertEquals(MailboxOverflowException.Reason.MAILBOX_FULL, overflowReason(rejected));
+        assertEquals(2, cut.getQueueDepth("reject"));
+        // other entities are not affected
+        assertEquals(1, cut.execute("reject_other", Command.INCREMENT).get(100, TimeUnit.MILLISECONDS).intValue());
+
+        conf.gate.complete(null);
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(2, first.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(3, second.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(0, cut.getQueueDepth("reject"));
+    }
+
+    @Test
+    public void oldest_requests_are_dropped_on_overflow() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        conf.mailboxCapacity = 2;
+        conf.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        cut = new Dispatcher(conf);
+        CompletableFuture<Integer> executing = startGated("drop");
+        CompletableFuture<Integer> dropped = cut.execute("drop", Command.INCREMENT);
+        CompletableFuture<Integer> second = cut.execute("drop", Command.INCREMENT);
+        CompletableFuture<Integer> third = cut.execute("drop", Command.INCREMENT);
+        assertEquals(MailboxOverflowException.Reason.DROPPED, overflowReason(dropped));
+        assertEquals(2, cut.getQueueDepth("drop"));
+
+        conf.gate.complete(null);
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(2, second.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(3, third.get(100, TimeUnit.MILLISECONDS).intValue());
+    }
+
+    @Test
+    public void unbounded_requests_do_not_drop_queued_ones() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        conf.mailboxCapacity = 1;
+        conf.maxInFlight = 2;
+        conf.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        cut = new Dispatcher(conf);
+        CompletableFuture<Integer> executing = startGated("unbounded");
+        CompletableFuture<Integer> queued = cut.execute("unbounded", Command.INCREMENT);
+        CompletableFuture<Integer> unbounded = cut.executeUnbounded("unbounded", Command.INCREMENT);
+        assertFalse(queued.isDone());
+        assertEquals(2, cut.getQueueDepth("unbounded"));
+        assertEquals(2, cut.getInFlightCount());
+
+        conf.gate.complete(null);
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(2, queued.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(3, unbounded.get(100, TimeUnit.MILLISECONDS).intValue());
+    }
+
+    @Test
+    public void requests_exceeding_in_flight_limit_are_rejected() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        conf.maxInFlight = 2;
+        cut = new Dispatcher(conf);
+        CompletableFuture<Integer> executing = startGated("inflight");
+        CompletableFuture<Integer> delayed = cut.executeLater("inflight_other", Command.INCREMENT, 10,
+            TimeUnit.MILLISECONDS);
+        assertEquals(2, cut.getInFlightCount());
+        assertEquals(MailboxOverflowException.Reason.DISPATCHER_FULL,
+            overflowReason(cut.execute("inflight_third", Command.INCREMENT)));
+
+        conf.gate.complete(null);
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(1, delayed.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(1, cut.execute("inflight_third", Command.INCREMENT).get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(0, cut.getInFlightCount());
+    }
+
+    @Test
+    public void backpressure_blocks_caller_until_mailbox_has_capacity() throws InterruptedException,
+            ExecutionException, TimeoutException {
+        conf.mailboxCapacity = 1;
+        conf.overflowPolicy = OverflowPolicy.BACKPRESSURE;
+        cut = new Dispatcher(conf);
+        CompletableFuture<Integer> executing = startGated("backpressure");
+        CompletableFuture<Integer> queued = cut.execute("backpressure", Command.INCREMENT);
+        scheduler.schedule(() -> conf.gate.complete(null), 50, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        CompletableFuture<Integer> blocked = cut.execute("backpressure", Command.INCREMENT);
+        assertThat(System.nanoTime() - start, Matchers.greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(40)));
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(2, queued.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(3, blocked.get(100, TimeUnit.MILLISECONDS).intValue());
+    }
+
+    @Test
+    public void backpressure_rejects_after_timeout() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        conf.mailboxCapacity = 1;
+        conf.overflowPolicy = OverflowPolicy.BACKPRESSURE;
+        conf.backpressureTimeout = 20;
+        cut = new Dispatcher(conf);
+        startGated("backpressure_timeout");
+        cut.execute("backpressure_timeout", Command.INCREMENT);
+        long start = System.nanoTime();
+        CompletableFuture<Integer> rejected = cut.execute("backpressure_timeout", Command.INCREMENT);
+        assertThat(System.nanoTime() - start, Matchers.greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(MailboxOverflowException.Reason.MAILBOX_FULL, overflowReason(rejected));
+        conf.gate.complete(null);
+    }
+
+    @Test
+    public void cancellation_of_deeply_queued_invocations_takes_constant_time() throws InterruptedException,
+            ExecutionException, TimeoutException {
+        int depth = 100_000;
+        CompletableFuture<Integer> executing = startGated("deep");
+        List<CompletableFuture<Integer>> queued = Stream.generate(() -> cut.execute("deep", Command.INCREMENT))
+                .limit(depth)
+                .collect(toList());
+        assertEquals(depth, cut.getQueueDepth("deep"));
+        // cancel from the tail, which used to scan whole queue for every request
+        long start = System.nanoTime();
+        for (int i = depth - 1; i > 0; i--) {
+            assertTrue(queued.get(i).cancel(false));
+        }
+        long elapsed = System.nanoTime() - start;
+        logger.info("Cancelled {} queued invocations in {} ms, {} cancels/ms", depth - 1,
+            TimeUnit.NANOSECONDS.toMillis(elapsed), (depth - 1) * 1_000_000L / Math.max(elapsed, 1));
+        // scanning the queue would take minutes
+        assertThat(elapsed, Matchers.lessThan(TimeUnit.SECONDS.toNanos(5)));
+        // only live entries are counted
+        assertEquals(1, cut.getQueueDepth("deep"));
+
+        conf.gate.complete(null);
+        assertEquals(1, executing.get(100, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(2, queued.get(0).get(1, TimeUnit.SECONDS).intValue());
+        assertEquals(0, cut.getQueueDepth("deep"));
+    }
+
+    @Test
+    public void affine_dispatcher_runs_entity_on_its_lane() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        requestsMayFail = false;
+        ThreadRecordingConfig recordingConf = new ThreadRecordingConfig();
+        AffineDispatcher affine = new AffineDispatcher(recordingConf, 3);
+        try {
+            List<CompletableFuture<Integer>> results = Stream.of(instances)
+                    .flatMap(id -> Stream.generate(() -> affine.execute("affine" + id, Command.INCREMENT)).limit(20))
+                    .collect(toList());
+            for (CompletableFuture<Integer> result : results) {
+                result.get(1, TimeUnit.SECONDS);
+            }
+            for (String id : instances) {
+                assertEquals(20, recordingConf.lookup("affine" + id).state);
+                assertEquals(Collections.singleton("Counter-lane-" + affine.laneOf("affine" + id)),
+                    recordingConf.threads.get("affine" + id));
+            }
+        } finally {
+            affine.shutdown();
+        }
+    }
+
+    /**
+     * Start a request, that will not complete until {@code conf.gate} is completed, and wait until it leaves the queue.
+     */
+    private CompletableFuture<Integer> startGated(String id) throws InterruptedException {
+        requestsMayFail = false;
+        conf.gatedId = id;
+        conf.gate = new CompletableFuture<>();
+        CompletableFuture<Integer> result = cut.execute(id, Command.INCREMENT);
+        for (int i = 0; i < 100 && cut.getQueueDepth(id) > 0; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, cut.getQueueDepth(id));
+        return result;
+    }
+
+    private static MailboxOverflowException.Reason overflowReason(CompletableFuture<?> result)
+            throws InterruptedException, TimeoutException {
+        try {
+            result.get(100, TimeUnit.MILLISECONDS);
+            fail("Request should have failed with MailboxOverflowException");
+            return null;
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), Matchers.instanceOf(MailboxOverflowException.class));
+            return ((MailboxOverflowException) e.getCause()).getReason();
+        }
+    }
+
+    private int awaitReclamation(int expected) throws InterruptedException {
+        int reclaimed = 0;
+        for (int i = 0; i < 100 && reclaimed < expected; i++) {
+            reclaimed += cut.reclaimIdleMailboxes();
+            Thread.sleep(1);
+        }
+        return reclaimed;
+    }
+
 }
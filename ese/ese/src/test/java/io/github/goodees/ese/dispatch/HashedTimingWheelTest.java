@@ -0,0 +1,121 @@
+package io.github.goodees.ese.dispatch;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.*;
+
+public class HashedTimingWheelTest {
+    private HashedTimingWheel cut = new HashedTimingWheel("test-timer", 1, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void tearDown() {
+        cut.stop();
+    }
+
+    @Test
+    public void tasks_do_not_run_before_deadline() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // longer than whole wheel rotation
+        cut.schedule(latch::countDown, 20, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+    }
+
+    @Test
+    public void cancelled_tasks_do_not_run() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        HashedTimingWheel.Timeout cancelled = cut.schedule(runs::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+        CountDownLatch latch = new CountDownLatch(1);
+        cut.schedule(latch::countDown, 20, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertTrue(cancelled.isCancelled());
+        assertFalse(cancelled.isExpired());
+    }
+
+    @Test
+    public void cancelled_tasks_are_removed_from_wheel() throws InterruptedException {
+        List<HashedTimingWheel.Timeout> timeouts = IntStream.range(0, 10000)
+                .mapToObj(i -> cut.schedule(() -> {}, 1, TimeUnit.MINUTES))
+                .collect(Collectors.toList());
+        awaitPendingCount(10000);
+        timeouts.forEach(HashedTimingWheel.Timeout::cancel);
+        awaitPendingCount(0);
+    }
+
+    @Test
+    public void all_tasks_run() throws InterruptedException {
+        int count = 10000;
+        CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            cut.schedule(latch::countDown, i % 50, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stop_returns_tasks_that_did_not_run() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        Runnable transferred = runs::incrementAndGet;
+        cut.schedule(transferred, 1, TimeUnit.MINUTES);
+        awaitPendingCount(1);
+        Runnable queued = runs::incrementAndGet;
+        cut.schedule(queued, 1, TimeUnit.MINUTES);
+        cut.schedule(runs::incrementAndGet, 1, TimeUnit.MINUTES).cancel();
+
+        List<Runnable> unexecuted = cut.stop();
+        assertEquals(2, unexecuted.size());
+        assertTrue(unexecuted.containsAll(Arrays.asList(transferred, queued)));
+        assertEquals(0, runs.get());
+        // tasks are handed over only once
+        assertTrue(cut.stop().isEmpty());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void stopped_wheel_rejects_tasks() {
+        cut.stop();
+        cut.schedule(() -> {}, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private void awaitPendingCount(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && cut.getPendingCount() != expected; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, cut.getPendingCount());
+    }
+}
@@ -24,7 +24,11 @@ import io.github.goodees.ese.immutables.events.OrderShippedEvent;
 import io.github.goodees.ese.immutables.events.OrderEvent;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
@@ -69,4 +73,37 @@ public class EventTypeIdResolverTest {
                 .getRawClass()));
     }
 
+    @Test
+    public void index_is_generated_for_event_package() {
+        EventTypeIndex index = EventTypeIndex.forPackage(OrderEvent.class.getPackage().getName(),
+                OrderEvent.class.getClassLoader());
+        assertEquals(2, index.types().size());
+        assertTrue(AddressChangedEvent.class.isAssignableFrom(index.types().get("AddressChanged")));
+        assertTrue(OrderShippedEvent.class.isAssignableFrom(index.types().get("OrderShipped")));
+        assertNull(EventTypeIndex.forPackage(EventTypeIdResolverTest.class.getPackage().getName(),
+                EventTypeIdResolverTest.class.getClassLoader()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknown_types_are_not_resolved() {
+        resolver.typeFromId("OrderCancelled", tf);
+    }
+
+    @Test
+    public void types_missing_in_index_are_resolved_by_convention() {
+        EventTypeIndex partial = new EventTypeIndex() {
+            @Override
+            public Map<String, Class<? extends ImmutableEvent>> types() {
+                return Collections.singletonMap("AddressChanged", AddressChangedEvent.class);
+            }
+        };
+        resolver.init(OrderEvent.class.getPackage().getName(), partial);
+        assertTrue(OrderShippedEvent.class.isAssignableFrom(resolver.typeFromId("OrderShipped", tf).getRawClass()));
+    }
+
+    @Test
+    public void resolved_types_are_cached() {
+        assertSame(resolver.typeFromId("AddressChanged", tf), resolver.typeFromId("AddressChanged", tf));
+    }
+
 }
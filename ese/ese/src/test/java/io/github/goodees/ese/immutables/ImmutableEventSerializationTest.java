@@ -0,0 +1,107 @@
+package io.github.goodees.ese.immutables;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.github.goodees.ese.immutables.events.AddressChangedEvent;
+import io.github.goodees.ese.immutables.events.JsonTestEntity;
+import io.github.goodees.ese.immutables.events.OrderEvent;
+import io.github.goodees.ese.immutables.events.OrderShippedEvent;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ImmutableEventSerializationTest {
+    private static final Logger logger = LoggerFactory.getLogger(ImmutableEventSerializationTest.class);
+
+    private final ImmutableEventSerialization<OrderEvent> serialization =
+            new ImmutableEventSerialization<>(OrderEvent.class);
+    private final JsonTestEntity entity = new JsonTestEntity(null, "serialization");
+    private final AddressChangedEvent addressChanged = AddressChangedEvent.builder(entity).city("city")
+            .country("country").street("street").build();
+    private final OrderShippedEvent orderShipped = OrderShippedEvent.builder(entity).logisticsPartner("Daddy's Van")
+            .trackingNumber("2017/23").build();
+
+    @Test
+    public void events_round_trip() {
+        assertEquals(addressChanged, serialization.deserialize(1, serialization.serialize(addressChanged),
+                addressChanged.getType()));
+        assertEquals(orderShipped, serialization.deserializeBinary(1, serialization.serializeBinary(orderShipped),
+                orderShipped.getType()));
+    }
+
+    @Test
+    public void events_without_stored_type_are_read_by_type_property() {
+        assertEquals(addressChanged, serialization.deserialize(1, serialization.serialize(addressChanged), null));
+    }
+
+    @Test
+    public void registered_and_resolved_types_read_the_same() {
+        ImmutableEventSerialization<OrderEvent> registered = new ImmutableEventSerialization<>(OrderEvent.class)
+                .register(AddressChangedEvent.class, OrderShippedEvent.class);
+        String payload = serialization.serialize(orderShipped);
+        assertEquals(serialization.deserialize(1, payload, "OrderShipped"),
+                registered.deserialize(1, payload, "OrderShipped"));
+    }
+
+    @Test
+    public void unknown_types_are_not_deserialized() {
+        assertNull(serialization.deserialize(1, "{\"type\":\"OrderCancelled\"}", "OrderCancelled"));
+        assertSame(addressChanged, serialization.toSerializable(addressChanged));
+        assertNull(serialization.toSerializable("event"));
+    }
+
+    @Test
+    public void replay_throughput() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModules(new Jdk8Module(), new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        String payload = serialization.serialize(addressChanged);
+        byte[] binaryPayload = serialization.serializeBinary(addressChanged);
+        int count = 50000;
+        for (int i = 0; i < count; i++) {
+            mapper.readValue(payload, OrderEvent.class);
+            serialization.deserializeBinary(1, binaryPayload, "AddressChanged");
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mapper.readValue(payload, OrderEvent.class);
+        }
+        long mapperTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            serialization.deserializeBinary(1, binaryPayload, "AddressChanged");
+        }
+        long serializationTime = System.nanoTime() - start;
+        logger.info("Replayed {} events in {} ms with ObjectMapper.readValue, {} ms with ImmutableEventSerialization",
+                count, TimeUnit.NANOSECONDS.toMillis(mapperTime), TimeUnit.NANOSECONDS.toMillis(serializationTime));
+    }
+}
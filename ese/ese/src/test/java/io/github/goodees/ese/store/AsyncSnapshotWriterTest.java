@@ -0,0 +1,132 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import io.github.goodees.ese.store.inmemory.InMemorySnapshotStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSnapshotWriterTest {
+
+    private final InMemorySnapshotStore store = new InMemorySnapshotStore();
+
+    @Test
+    public void snapshots_are_written_in_background() throws InterruptedException {
+        AsyncSnapshotWriter writer = new AsyncSnapshotWriter(store, ForkJoinPool.commonPool(), 10);
+        assertTrue(writer.submit("a", 3, "snapshot a"));
+        assertTrue(writer.submit("b", 5, "snapshot b"));
+        assertTrue(writer.awaitEmpty(5, TimeUnit.SECONDS));
+        assertEquals(3, store.getSnapshottedVersion("a"));
+        assertEquals(5, store.getSnapshottedVersion("b"));
+        assertEquals(2, writer.getWrittenCount());
+    }
+
+    @Test
+    public void newer_snapshot_replaces_queued_one() {
+        HeldExecutor executor = new HeldExecutor();
+        AsyncSnapshotWriter writer = new AsyncSnapshotWriter(store, executor, 10);
+        writer.submit("a", 1, "v1");
+        writer.submit("a", 3, "v3");
+        writer.submit("a", 2, "v2");
+        assertEquals(1, writer.getQueueDepth());
+        assertEquals(2, writer.getCoalescedCount());
+
+        executor.release();
+        assertEquals(3, store.getSnapshottedVersion("a"));
+        assertEquals("v3", store.retrieveSnapshotRecord("a").getPayload());
+        assertEquals(1, writer.getWrittenCount());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void write_time_is_reported_for_written_snapshot() {
+        HeldExecutor executor = new HeldExecutor();
+        AsyncSnapshotWriter writer = new AsyncSnapshotWriter(store, executor, 10);
+        List<String> reported = new ArrayList<>();
+        writer.submit("a", 1, "v1", nanos -> reported.add("v1"));
+        writer.submit("a", 2, "v2", nanos -> {
+            assertTrue(nanos > 0);
+            reported.add("v2");
+        });
+
+        executor.release();
+        assertEquals(Arrays.asList("v2"), reported);
+    }
+
+    @Test
+    public void snapshots_beyond_capacity_are_rejected() {
+        HeldExecutor executor = new HeldExecutor();
+        AsyncSnapshotWriter writer = new AsyncSnapshotWriter(store, executor, 2);
+        assertTrue(writer.submit("a", 1, "a"));
+        assertTrue(writer.submit("b", 1, "b"));
+        assertFalse(writer.submit("c", 1, "c"));
+        // coalescing needs no extra capacity
+        assertTrue(writer.submit("a", 2, "a"));
+        assertEquals(1, writer.getRejectedCount());
+
+        executor.release();
+        assertNull(store.retrieveSnapshotRecord("c"));
+        assertEquals(2, writer.getWrittenCount());
+    }
+
+    @Test
+    public void failed_writes_are_counted() throws InterruptedException {
+        SnapshotStore<Object> failing = new InMemorySnapshotStore() {
+            @Override
+            protected void storeSnapshotRecord(SnapshotRecord snapshotRecord) {
+                throw new IllegalStateException("Database is down");
+            }
+        };
+        AsyncSnapshotWriter writer = new AsyncSnapshotWriter(failing, ForkJoinPool.commonPool(), 10);
+        writer.submit("a", 1, "a");
+        assertTrue(writer.awaitEmpty(5, TimeUnit.SECONDS));
+        assertEquals(1, writer.getFailedCount());
+        assertEquals(0, writer.getWrittenCount());
+        assertTrue(writer.getMaxWriteLatency(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    static class HeldExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized void release() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressingSerializationTest {
+    private static final Logger logger = LoggerFactory.getLogger(CompressingSerializationTest.class);
+
+    private final TextSerialization text = new TextSerialization();
+    private final CompressingSerialization<String> compressing = new CompressingSerialization<>(text, 1024);
+
+    @Test
+    public void small_payloads_are_not_compressed() {
+        String payload = "{\"small\":true}";
+        assertSame(payload, compressing.serialize(payload));
+        assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), compressing.serializeBinary(payload));
+        assertEquals(0, compressing.getCompressedCount());
+    }
+
+    @Test
+    public void large_payloads_are_compressed() {
+        String payload = document(100);
+        String serialized = compressing.serialize(payload);
+        byte[] binary = compressing.serializeBinary(payload);
+        assertTrue(serialized.length() < payload.length());
+        assertTrue(binary.length < payload.length());
+        assertEquals(payload, compressing.deserialize(1, serialized, null));
+        assertEquals(payload, compressing.deserializeBinary(1, binary, null));
+        assertEquals(2, compressing.getCompressedCount());
+        assertTrue(compressing.getCompressionRatio() < 0.5);
+    }
+
+    @Test
+    public void uncompressed_payloads_are_still_read() {
+        String payload = document(100);
+        assertEquals(payload, compressing.deserialize(1, text.serialize(payload), null));
+        assertEquals(payload, compressing.deserializeBinary(1, payload.getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    @Test
+    public void compression_cost_and_savings() {
+        String payload = document(5000);
+        int rounds = 200;
+        CompressingSerialization<String> never = new CompressingSerialization<>(text, Integer.MAX_VALUE);
+        // warm up both paths
+        measure(never, payload, rounds);
+        measure(compressing, payload, rounds);
+
+        long plainTime = measure(never, payload, rounds);
+        long compressedTime = measure(compressing, payload, rounds);
+        int compressedSize = compressing.serializeBinary(payload).length;
+        assertNotEquals(payload.length(), compressedSize);
+        logger.info("Payload of {} bytes took {} us to serialize and read back, compressed to {} bytes in {} us",
+                payload.length(), TimeUnit.NANOSECONDS.toMicros(plainTime) / rounds, compressedSize,
+                TimeUnit.NANOSECONDS.toMicros(compressedTime) / rounds);
+    }
+
+    private long measure(BinarySerialization<String> serialization, String payload, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            assertEquals(payload.length(),
+                    serialization.deserializeBinary(1, serialization.serializeBinary(payload), null).length());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String document(int items) {
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            result.append(i == 0 ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"street\":\"Main street ").append(i % 50).append("\",\"city\":\"City\"}");
+        }
+        return result.append("]").toString();
+    }
+
+    static class TextSerialization implements Serialization<String> {
+        @Override
+        public int payloadVersion(String object) {
+            return 1;
+        }
+
+        @Override
+        public String serialize(String object) {
+            return object;
+        }
+
+        @Override
+        public String deserialize(int payloadVersion, String payload, String type) {
+            return payload;
+        }
+
+        @Override
+        public String toSerializable(Object o) {
+            return o instanceof String ? (String) o : null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import io.github.goodees.ese.EventHeader;
+import io.github.goodees.ese.store.inmemory.InMemoryEventStore;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExecutorAsyncEventStoreTest {
+
+    private final InMemoryEventStore delegate = new InMemoryEventStore();
+    private final AsyncSnapshotWriterTest.HeldExecutor ioExecutor = new AsyncSnapshotWriterTest.HeldExecutor();
+    private final ExecutorAsyncEventStore store = new ExecutorAsyncEventStore(delegate, ioExecutor);
+
+    @Test
+    public void events_are_persisted_on_io_executor() throws Exception {
+        CompletableFuture<Void> persisted = store.persistAsync(new EventHeader("a", 1), new EventHeader("a", 2))
+                .toCompletableFuture();
+        assertFalse(persisted.isDone());
+        assertEquals(0, eventCount("a"));
+
+        ioExecutor.release();
+        persisted.get();
+        assertEquals(2, eventCount("a"));
+    }
+
+    @Test
+    public void failure_completes_with_event_store_exception() throws InterruptedException {
+        store.persistAsync(new EventHeader("a", 1));
+        CompletableFuture<Void> stale = store.persistAsync(new EventHeader("a", 1)).toCompletableFuture();
+        ioExecutor.release();
+        try {
+            stale.get();
+            fail("should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EventStoreException);
+            assertEquals(EventStoreException.Fault.OPTIMISTIC_LOCK, ((EventStoreException) e.getCause()).getFault());
+        }
+    }
+
+    private int eventCount(String entityId) {
+        return delegate.readEvents(entityId, 0).reduce(0, (count, event) -> count + 1);
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.goodees.ese.store;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class UpcastingSerializationTest {
+    private static final Logger logger = LoggerFactory.getLogger(UpcastingSerializationTest.class);
+
+    private final VersionedSerialization versioned = new VersionedSerialization();
+    private final UpcastingSerialization<String> upcasting = new UpcastingSerialization<>(versioned)
+            .register("address", 1, JsonUpcaster.create().rename("street", "line1"))
+            .register("address", 2, JsonUpcaster.create().rename("line1", "addressLine").add("country", "SK"))
+            .register("address", 3, JsonUpcaster.create().remove("legacy"));
+
+    @Test
+    public void current_version_is_passed_through() {
+        String payload = "{\"addressLine\":\"Main street\"}";
+        assertSame(payload, upcasting.deserialize(4, payload, "address"));
+        assertEquals(4, versioned.lastVersion);
+        assertEquals(0, upcasting.getUpcastedCount());
+    }
+
+    @Test
+    public void unknown_types_are_passed_through() {
+        String payload = "{\"street\":\"Main street\"}";
+        assertSame(payload, upcasting.deserialize(1, payload, "person"));
+        assertSame(payload, upcasting.deserialize(1, payload, null));
+        assertEquals(1, versioned.lastVersion);
+    }
+
+    @Test
+    public void chain_is_applied_up_to_current_version() {
+        assertEquals("{\"addressLine\":\"Main street\",\"city\":\"Bratislava\",\"country\":\"SK\"}",
+                upcasting.deserialize(1, "{\"street\":\"Main street\",\"city\":\"Bratislava\",\"legacy\":[1,{\"a\":2}]}",
+                        "address"));
+        assertEquals(4, versioned.lastVersion);
+        assertEquals("{\"addressLine\":\"Main street\"}",
+                upcasting.deserialize(3, "{\"legacy\":true,\"addressLine\":\"Main street\"}", "address"));
+        assertEquals(2, upcasting.getUpcastedCount());
+    }
+
+    @Test
+    public void renamed_property_replaces_existing_one() {
+        JsonUpcaster upcaster = JsonUpcaster.create().rename("a", "b").rename("c", "a");
+        assertEquals("{\"b\":1,\"a\":3}", upcaster.upcast("{\"a\":1,\"b\":2,\"c\":3}"));
+        assertEquals("{\"b\":1}", upcaster.andThen(JsonUpcaster.create().remove("a")).upcast("{\"a\":1,\"b\":2,\"c\":3}"));
+        assertEquals("{\"a\":1,\"c\":{\"x\":[]}}",
+                JsonUpcaster.create().rename("a", "b").rename("b", "a").upcast("{\"a\":1,\"b\":2,\"c\":{\"x\":[]}}"));
+    }
+
+    @Test
+    public void added_property_can_be_renamed_and_removed() {
+        assertEquals("{\"x\":1,\"flag\":true}",
+                JsonUpcaster.create().add("enabled", true).rename("enabled", "flag").upcast("{\"x\":1,\"flag\":false}"));
+        assertEquals("{\"x\":1}", JsonUpcaster.create().add("enabled", true).remove("enabled").upcast("{\"x\":1}"));
+    }
+
+    @Test
+    public void custom_upcasters_are_chained() {
+        UpcastingSerialization<String> serialization = new UpcastingSerialization<>(versioned)
+                .register("note", 1, 5, payload -> "{\"text\":\"" + payload + "\"}")
+                .register("note", 5, JsonUpcaster.create().add("format", "plain"))
+                .register("note", 6, JsonUpcaster.create().rename("text", "body"));
+        assertEquals("{\"body\":\"hello\",\"format\":\"plain\"}", serialization.deserialize(1, "hello", "note"));
+        assertEquals(7, versioned.lastVersion);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void upcaster_must_produce_later_version() {
+        upcasting.register("address", 4, 4, payload -> payload);
+    }
+
+    @Test
+    public void streaming_upcast_compared_to_tree_patching() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Upcaster tree = payload -> {
+            try {
+                ObjectNode node = (ObjectNode) mapper.readTree(payload);
+                node.set("line1", node.remove("street"));
+                ObjectNode next = (ObjectNode) mapper.readTree(mapper.writeValueAsString(node));
+                next.set("addressLine", next.remove("line1"));
+                next.put("country", "SK");
+                ObjectNode last = (ObjectNode) mapper.readTree(mapper.writeValueAsString(next));
+                last.remove("legacy");
+                return mapper.writeValueAsString(last);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        UpcastingSerialization<String> patching = new UpcastingSerialization<>(versioned).register("address", 1, 4, tree);
+        String payload = "{\"street\":\"Main street 12\",\"city\":\"Bratislava\",\"zip\":\"81101\",\"legacy\":[1,2,3]}";
+        assertEquals(mapper.readTree(patching.deserialize(1, payload, "address")),
+                mapper.readTree(upcasting.deserialize(1, payload, "address")));
+        int rounds = 50_000;
+        // warm up both paths
+        measure(patching, payload, rounds);
+        measure(upcasting, payload, rounds);
+
+        long patchingTime = measure(patching, payload, rounds);
+        long streamingTime = measure(upcasting, payload, rounds);
+        logger.info("Upcasting {} payloads by tree patching took {} ms, by fused streaming chain {} ms", rounds,
+                TimeUnit.NANOSECONDS.toMillis(patchingTime), TimeUnit.NANOSECONDS.toMillis(streamingTime));
+    }
+
+    private long measure(Serialization<String> serialization, String payload, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            serialization.deserialize(1, payload, "address");
+        }
+        return System.nanoTime() - start;
+    }
+
+    static class VersionedSerialization extends CompressingSerializationTest.TextSerialization {
+        int lastVersion;
+
+        @Override
+        public String deserialize(int payloadVersion, String payload, String type) {
+            lastVersion = payloadVersion;
+            return payload;
+        }
+    }
+}
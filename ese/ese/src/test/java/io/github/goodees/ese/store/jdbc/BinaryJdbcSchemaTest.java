@@ -0,0 +1,249 @@
+package io.github.goodees.ese.store.jdbc;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import io.github.goodees.ese.MockEntities;
+import io.github.goodees.ese.store.BinarySerialization;
+import io.github.goodees.ese.store.EventLog;
+import io.github.goodees.ese.store.EventStoreException;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BinaryJdbcSchemaTest extends JdbcTest {
+    private BinaryJdbcSchema binarySchema;
+    private BinaryEventSerialization binarySerialization;
+
+    @BeforeClass
+    public static void createTables() throws SQLException {
+        try (Connection con = ds.getConnection()) {
+            executeSql(con,
+                "create table event_binary (ID varchar, VERSION int, TIMESTAMP timestamp, TYPE varchar, PAYLOAD_VERSION int, PAYLOAD blob, primary key (ID, VERSION))",
+                "create table snapshot_binary(ID varchar primary key, VERSION int, TIMESTAMP timestamp, PAYLOAD_VERSION int, PAYLOAD blob)");
+        }
+    }
+
+    @AfterClass
+    public static void dropTables() throws SQLException {
+        try (Connection con = ds.getConnection()) {
+            executeSql(con, "drop table event_binary", "drop table snapshot_binary");
+        }
+    }
+
+    @Before
+    public void setUpBinary() {
+        binarySchema = new BinaryJdbcSchema("event_binary", "version", "snapshot_binary");
+        binarySerialization = new BinaryEventSerialization();
+    }
+
+    @Test
+    public void binary_events_are_stored_and_replayed() throws Exception {
+        JdbcEventStore<JdbcTestEvent> store = new JdbcEventStore<>(ds, binarySchema, binarySerialization);
+        List<JdbcTestEvent> events = Arrays.asList(new JdbcTestEvent(name(), 1, 10), new JdbcTestEvent(name(), 2, 20),
+                new JdbcTestEvent(name(), 3, 30));
+        store.persist(events);
+
+        assertArrayEquals(binarySerialization.serializeBinary(events.get(0)),
+                readBytes("select payload from event_binary where id = ? and version = 1"));
+        assertEquals(events, readAll(new JdbcEventLog<>(ds, binarySchema, binarySerialization, true)));
+        ExecutorService deserializers = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(events, readAll(new JdbcEventLog<>(ds, binarySchema, binarySerialization, true)
+                    .pipelined(deserializers, 2)));
+        } finally {
+            deserializers.shutdown();
+        }
+    }
+
+    @Test
+    public void binary_events_are_stored_without_version_table() throws Exception {
+        BinaryJdbcSchema keySchema = new BinaryJdbcSchema("event_binary", null, "snapshot_binary");
+        JdbcEventStore<JdbcTestEvent> store = new JdbcEventStore<>(ds, keySchema, binarySerialization);
+        List<JdbcTestEvent> events = Arrays.asList(new JdbcTestEvent(name(), 1, 10), new JdbcTestEvent(name(), 2, 20));
+        store.persist(events);
+        assertDb(0, "select count(*) from version where id = ?", name());
+        assertEquals(events, readAll(new JdbcEventLog<>(ds, keySchema, binarySerialization, true)));
+
+        try {
+            store.persist(new JdbcTestEvent(name(), 2, 30));
+            fail("should have failed");
+        } catch (EventStoreException e) {
+            assertEquals(EventStoreException.Fault.OPTIMISTIC_LOCK, e.getFault());
+        }
+    }
+
+    @Test
+    public void string_payloads_are_stored_in_utf8() throws Exception {
+        JdbcEventStore<JdbcTestEvent> store = new JdbcEventStore<>(ds, binarySchema, serialization);
+        JdbcTestEvent event = new JdbcTestEvent(name(), 1, 10);
+        store.persist(event);
+
+        assertArrayEquals(serialization.serialize(event).getBytes(StandardCharsets.UTF_8),
+                readBytes("select payload from event_binary where id = ?"));
+        assertEquals(Arrays.asList(event), readAll(new JdbcEventLog<>(ds, binarySchema, serialization, true)));
+    }
+
+    @Test
+    public void snapshots_are_stored_in_binary() {
+        JdbcSnapshotStore<JdbcTestSnapshot> binarySnapshots = new JdbcSnapshotStore<>(ds, binarySchema,
+                new BinarySnapshotSerialization());
+        binarySnapshots.store(MockEntities.entityWithSnapshot(eventStore, name(), 4, new JdbcTestSnapshot(40)),
+                MockEntities.handler());
+        assertArrayEquals(new byte[] {0, 0, 0, 40}, readBytes("select payload from snapshot_binary where id = ?"));
+
+        JdbcTestEntity entity = new JdbcTestEntity(name(), eventStore);
+        binarySnapshots.recover(entity, new JdbcEventLog<>(ds, binarySchema, binarySerialization, true),
+                MockEntities.handler());
+        assertEquals(40, entity.getPayload());
+        assertEquals(4L, entity.getStateVersion());
+    }
+
+    @Test
+    public void binary_snapshots_are_not_encoded_in_base64() {
+        JdbcSnapshotStore<JdbcTestSnapshot> binarySnapshots = new JdbcSnapshotStore<>(ds, binarySchema,
+                new BinarySnapshotSerialization() {
+                    @Override
+                    public String serialize(JdbcTestSnapshot object) {
+                        throw new AssertionError("Binary payload should not be encoded");
+                    }
+
+                    @Override
+                    public JdbcTestSnapshot deserialize(int payloadVersion, String payload, String type) {
+                        throw new AssertionError("Binary payload should not be decoded");
+                    }
+                });
+        binarySnapshots.store(MockEntities.entityWithSnapshot(eventStore, name(), 5, new JdbcTestSnapshot(50)),
+                MockEntities.handler());
+        binarySnapshots.store(MockEntities.entityWithSnapshot(eventStore, name(), 6, new JdbcTestSnapshot(60)),
+                MockEntities.handler());
+        assertArrayEquals(new byte[] {0, 0, 0, 60}, readBytes("select payload from snapshot_binary where id = ?"));
+
+        JdbcTestEntity entity = new JdbcTestEntity(name(), eventStore);
+        binarySnapshots.recover(entity, new JdbcEventLog<>(ds, binarySchema, binarySerialization, true),
+                MockEntities.handler());
+        assertEquals(60, entity.getPayload());
+    }
+
+    @Test
+    public void string_snapshots_are_stored_in_utf8() {
+        JdbcSnapshotStore<JdbcTestSnapshot> stringSnapshots = new JdbcSnapshotStore<>(ds, binarySchema,
+                new TestSnapshotSerialization());
+        stringSnapshots.store(MockEntities.entityWithSnapshot(eventStore, name(), 7, new JdbcTestSnapshot(70)),
+                MockEntities.handler());
+        assertArrayEquals("70".getBytes(StandardCharsets.UTF_8),
+                readBytes("select payload from snapshot_binary where id = ?"));
+
+        JdbcTestEntity entity = new JdbcTestEntity(name(), eventStore);
+        stringSnapshots.recover(entity, new JdbcEventLog<>(ds, binarySchema, binarySerialization, true),
+                MockEntities.handler());
+        assertEquals(70, entity.getPayload());
+    }
+
+    private List<JdbcTestEvent> readAll(JdbcEventLog<JdbcTestEvent> log) {
+        List<JdbcTestEvent> delivered = new ArrayList<>();
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = log.readEvents(name(), 0)) {
+            ev.foreach(delivered::add);
+        }
+        return delivered;
+    }
+
+    private byte[] readBytes(String sql) {
+        try (Connection connection = ds.getConnection();
+                PreparedStatement st = connection.prepareStatement(sql)) {
+            st.setString(1, name());
+            try (ResultSet rs = st.executeQuery()) {
+                rs.next();
+                return rs.getBytes(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class BinaryEventSerialization implements BinarySerialization<JdbcTestEvent> {
+        @Override
+        public byte[] serializeBinary(JdbcTestEvent event) {
+            byte[] entityId = event.entityId().getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(4 + entityId.length + 8 + 8 + 4 + 4).putInt(entityId.length).put(entityId)
+                    .putLong(event.entityStateVersion()).putLong(event.getTimestamp().getEpochSecond())
+                    .putInt(event.getTimestamp().getNano()).putInt(event.getPayload()).array();
+        }
+
+        @Override
+        public JdbcTestEvent deserializeBinary(int payloadVersion, byte[] payload, String type) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            byte[] entityId = new byte[buffer.getInt()];
+            buffer.get(entityId);
+            int version = (int) buffer.getLong();
+            Instant timestamp = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+            return new JdbcTestEvent(new String(entityId, StandardCharsets.UTF_8), version, timestamp, buffer.getInt());
+        }
+
+        @Override
+        public int payloadVersion(JdbcTestEvent object) {
+            return 1;
+        }
+
+        @Override
+        public JdbcTestEvent toSerializable(Object o) {
+            return o instanceof JdbcTestEvent ? (JdbcTestEvent) o : null;
+        }
+    }
+
+    static class BinarySnapshotSerialization implements BinarySerialization<JdbcTestSnapshot> {
+        @Override
+        public byte[] serializeBinary(JdbcTestSnapshot snapshot) {
+            return ByteBuffer.allocate(4).putInt(snapshot.payload).array();
+        }
+
+        @Override
+        public JdbcTestSnapshot deserializeBinary(int payloadVersion, byte[] payload, String type) {
+            return new JdbcTestSnapshot(ByteBuffer.wrap(payload).getInt());
+        }
+
+        @Override
+        public int payloadVersion(JdbcTestSnapshot object) {
+            return 1;
+        }
+
+        @Override
+        public JdbcTestSnapshot toSerializable(Object o) {
+            return o instanceof JdbcTestSnapshot ? (JdbcTestSnapshot) o : null;
+        }
+    }
+}
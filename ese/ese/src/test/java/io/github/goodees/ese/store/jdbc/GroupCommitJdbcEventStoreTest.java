@@ -0,0 +1,195 @@
+package io.github.goodees.ese.store.jdbc;
+
+/*-
+ * #%L
+ * ese
+ * %%
+ * Copyright (C) 2017 Patrik Duditš
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import io.github.goodees.ese.store.EventStoreException;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitJdbcEventStoreTest extends JdbcTest {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitJdbcEventStoreTest.class);
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final ExecutorService callers = Executors.newFixedThreadPool(16);
+
+    @After
+    public void shutdown() {
+        writer.shutdownNow();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void concurrent_persists_are_committed_in_groups() throws Exception {
+        GroupCommitJdbcEventStore<JdbcTestEvent> groupStore = new GroupCommitJdbcEventStore<>(ds, schema,
+                serialization, writer, 32, 1, TimeUnit.MILLISECONDS);
+        int entities = 16;
+        int count = 200;
+        long start = System.nanoTime();
+        persistConcurrently(eventStore, name() + "-single", entities, count);
+        long singleTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        persistConcurrently(groupStore, name() + "-group", entities, count);
+        long groupTime = System.nanoTime() - start;
+
+        for (int i = 0; i < entities; i++) {
+            assertDb(count, "select count(*) from event where id = ?", name() + "-group-" + i);
+            assertDb(count, "select version from version where id = ?", name() + "-group-" + i);
+        }
+        assertEquals(entities * count, groupStore.getGroupedPersistCount());
+        assertTrue("Persists should share transactions", groupStore.getCommitCount() < entities * count);
+        logger.info("{} persists took {} ms one by one, {} ms with group commit averaging {} persists per commit",
+                entities * count, TimeUnit.NANOSECONDS.toMillis(singleTime), TimeUnit.NANOSECONDS.toMillis(groupTime),
+                groupStore.getAverageGroupSize());
+    }
+
+    private void persistConcurrently(JdbcEventStore<JdbcTestEvent> store, String prefix, int entities, int count) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            String entityId = prefix + "-" + i;
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int v = 1; v <= count; v++) {
+                    try {
+                        store.persist(new JdbcTestEvent(entityId, v, v));
+                    } catch (EventStoreException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            }, callers));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    @Test
+    public void stale_entity_fails_alone() {
+        GroupCommitJdbcEventStore<JdbcTestEvent> groupStore = new GroupCommitJdbcEventStore<>(ds, schema,
+                serialization, writer, 3, 10, TimeUnit.SECONDS);
+        template.update("insert into version (id, version) values(?, 10)", name() + "-stale");
+
+        CompletableFuture<Void> first = persistAsync(groupStore, new JdbcTestEvent(name() + "-first", 1, 100));
+        CompletableFuture<Void> stale = persistAsync(groupStore, new JdbcTestEvent(name() + "-stale", 10, 100));
+        CompletableFuture<Void> last = persistAsync(groupStore, new JdbcTestEvent(name() + "-last", 1, 100));
+
+        first.join();
+        last.join();
+        assertFault(EventStoreException.Fault.OPTIMISTIC_LOCK, stale);
+        assertDb(1, "select count(*) from event where id = ?", name() + "-first");
+        assertDb(1, "select count(*) from event where id = ?", name() + "-last");
+        assertDb(0, "select count(*) from event where id = ?", name() + "-stale");
+        assertDb(10, "select version from version where id = ?", name() + "-stale");
+        assertEquals(1, groupStore.getCommitCount());
+        assertEquals(1, groupStore.getRejectedPersistCount());
+        assertEquals(0, groupStore.getFallbackCount());
+    }
+
+    @Test
+    public void failed_group_is_persisted_one_by_one() throws EventStoreException {
+        EventKeyJdbcSchema keySchema = new EventKeyJdbcSchema("event", "snapshot");
+        GroupCommitJdbcEventStore<JdbcTestEvent> groupStore = new GroupCommitJdbcEventStore<>(ds, keySchema,
+                serialization, writer, 2, 10, TimeUnit.SECONDS);
+        new JdbcEventStore<>(ds, keySchema, serialization).persist(new JdbcTestEvent(name() + "-stale", 1, 100));
+
+        CompletableFuture<Void> stale = persistAsync(groupStore, new JdbcTestEvent(name() + "-stale", 1, 200));
+        CompletableFuture<Void> fresh = persistAsync(groupStore, new JdbcTestEvent(name() + "-fresh", 1, 100));
+
+        fresh.join();
+        assertFault(EventStoreException.Fault.OPTIMISTIC_LOCK, stale);
+        assertDb(1, "select count(*) from event where id = ?", name() + "-fresh");
+        assertDb(1, "select count(*) from event where id = ?", name() + "-stale");
+        assertEquals(0, groupStore.getCommitCount());
+        assertEquals(1, groupStore.getFallbackCount());
+    }
+
+    @Test
+    public void async_persist_does_not_block_caller() {
+        GroupCommitJdbcEventStore<JdbcTestEvent> groupStore = new GroupCommitJdbcEventStore<>(ds, schema,
+                serialization, writer, 2, 10, TimeUnit.SECONDS);
+        CompletableFuture<Void> first = groupStore.persistAsync(new JdbcTestEvent(name(), 1, 100))
+                .toCompletableFuture();
+        assertFalse("Group should wait for second request", first.isDone());
+        CompletableFuture<Void> stale = groupStore.persistAsync(new JdbcTestEvent(name(), 1, 100))
+                .toCompletableFuture();
+
+        first.join();
+        assertFault(EventStoreException.Fault.OPTIMISTIC_LOCK, stale);
+        assertDb(1, "select version from version where id = ?", name());
+        assertEquals(1, groupStore.getCommitCount());
+    }
+
+    @Test
+    public void async_results_complete_off_the_writer() throws Exception {
+        GroupCommitJdbcEventStore<JdbcTestEvent> groupStore = new GroupCommitJdbcEventStore<>(ds, schema,
+                serialization, writer, 2, 10, TimeUnit.SECONDS).completeOn(callers);
+        Thread writerThread = writer.submit(Thread::currentThread).get();
+        CompletableFuture<Thread> completion = groupStore.persistAsync(new JdbcTestEvent(name() + "-1", 1, 100))
+                .thenApply(v -> Thread.currentThread()).toCompletableFuture();
+        groupStore.persistAsync(new JdbcTestEvent(name() + "-2", 1, 100)).toCompletableFuture().join();
+        assertNotSame(writerThread, completion.join());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void persist_throws_runtime_failure_unwrapped() throws EventStoreException {
+        GroupCommitJdbcEventStore<JdbcTestEvent> groupStore = new GroupCommitJdbcEventStore<>(ds, schema,
+                new TestEventSerialization() {
+                    @Override
+                    public String serialize(JdbcTestEvent object) {
+                        throw new IllegalStateException("Cannot serialize " + object);
+                    }
+                }, writer, 1, 0, TimeUnit.SECONDS);
+        groupStore.persist(new JdbcTestEvent(name(), 1, 100));
+    }
+
+    private CompletableFuture<Void> persistAsync(JdbcEventStore<JdbcTestEvent> store, JdbcTestEvent event) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                store.persist(event);
+            } catch (EventStoreException e) {
+                throw new CompletionException(e);
+            }
+        }, callers);
+    }
+
+    private void assertFault(EventStoreException.Fault fault, CompletableFuture<Void> persist) {
+        try {
+            persist.join();
+            fail("should have failed");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof EventStoreException);
+            assertEquals(fault, ((EventStoreException) e.getCause()).getFault());
+        }
+    }
+}
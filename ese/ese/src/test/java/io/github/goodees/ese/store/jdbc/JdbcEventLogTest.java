@@ -22,10 +22,24 @@ package io.github.goodees.ese.store.jdbc;
 
 import io.github.goodees.ese.store.EventLog;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.empty;
@@ -35,6 +49,7 @@ import static org.junit.Assert.assertTrue;
 
 
 public class JdbcEventLogTest extends JdbcTest {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcEventLogTest.class);
 
     void insert(JdbcTestEvent event) {
         template.update(
@@ -127,6 +142,233 @@ public class JdbcEventLogTest extends JdbcTest {
         assertThat(delivered, empty());
     }
 
+    @Test
+    public void pipelined_foreach_delivers_results_in_order() {
+        List<JdbcTestEvent> events = generate(200);
+        ExecutorService deserializers = Executors.newFixedThreadPool(4);
+        try {
+            eventLog.pipelined(deserializers, 16);
+            List<JdbcTestEvent> delivered = new ArrayList<>();
+            try (EventLog.StoredEvents<JdbcTestEvent> ev = eventLog.readEvents(name(), 0)) {
+                ev.foreach(delivered::add);
+            }
+            assertEquals(events, delivered);
+        } finally {
+            deserializers.shutdown();
+        }
+    }
+
+    @Test
+    public void pipelined_reduce_stops() {
+        int stopAt = 20;
+        generate(30);
+        ExecutorService deserializers = Executors.newFixedThreadPool(4);
+        try {
+            eventLog.pipelined(deserializers, 8);
+            try (EventLog.StoredEvents<JdbcTestEvent> ev = eventLog.readEvents(name(), 0)) {
+                int result = ev.reduce(0, (a, e) -> {if (e.entityStateVersion() == stopAt) ev.stop(); return a + e.getPayload();});
+                assertEquals(stopAt*(1+stopAt)*10/2, result);
+            }
+        } finally {
+            deserializers.shutdown();
+        }
+    }
+
+    @Test
+    public void pipelined_reduce_passes_undeserializable_events_like_sequential() {
+        generate(3);
+        JdbcEventLog<JdbcTestEvent> strictLog = new JdbcEventLog<>(ds, schema, unreadable(2), true);
+        assertEquals(Arrays.asList(1L, null, 3L), reducedVersions(strictLog));
+        ExecutorService deserializers = Executors.newFixedThreadPool(2);
+        try {
+            strictLog.pipelined(deserializers, 2);
+            assertEquals(Arrays.asList(1L, null, 3L), reducedVersions(strictLog));
+        } finally {
+            deserializers.shutdown();
+        }
+    }
+
+    private List<Long> reducedVersions(JdbcEventLog<JdbcTestEvent> log) {
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = log.readEvents(name(), 0)) {
+            return ev.reduce(new ArrayList<>(), (versions, e) -> {
+                versions.add(e == null ? null : e.entityStateVersion());
+                return versions;
+            });
+        }
+    }
+
+    static TestEventSerialization unreadable(long version) {
+        return new TestEventSerialization() {
+            @Override
+            public JdbcTestEvent deserialize(int payloadVersion, String payload, String type) {
+                JdbcTestEvent event = super.deserialize(payloadVersion, payload, type);
+                return event.entityStateVersion() == version ? null : event;
+            }
+        };
+    }
+
+    @Test
+    public void pipelined_replay_of_long_history() throws SQLException {
+        int size = 100_000;
+        try (Connection con = ds.getConnection();
+                PreparedStatement insert = con.prepareStatement(
+                    "insert into event (id, version, timestamp, type, payload_version, payload) values (?,?,?,?,?,?)")) {
+            for (int i = 1; i <= size; i++) {
+                JdbcTestEvent event = new JdbcTestEvent(name(), i, i);
+                insert.setString(1, event.entityId());
+                insert.setLong(2, i);
+                insert.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                insert.setString(4, event.getType());
+                insert.setInt(5, serialization.payloadVersion(event));
+                insert.setString(6, serialization.serialize(event));
+                insert.addBatch();
+                if (i % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+        }
+        long start = System.nanoTime();
+        long sequential;
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = eventLog.readEvents(name(), 0)) {
+            sequential = ev.reduce(0L, (sum, e) -> sum + e.getPayload());
+        }
+        long sequentialTime = System.nanoTime() - start;
+
+        ExecutorService deserializers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            eventLog.pipelined(deserializers, 256);
+            start = System.nanoTime();
+            long pipelined;
+            try (EventLog.StoredEvents<JdbcTestEvent> ev = eventLog.readEvents(name(), 0)) {
+                pipelined = ev.reduce(0L, (sum, e) -> sum + e.getPayload());
+            }
+            long pipelinedTime = System.nanoTime() - start;
+            assertEquals(sequential, pipelined);
+            assertEquals((long) size * (size + 1) / 2, pipelined);
+            logger.info("Replayed {} events sequentially in {} ms, pipelined in {} ms", size,
+                TimeUnit.NANOSECONDS.toMillis(sequentialTime), TimeUnit.NANOSECONDS.toMillis(pipelinedTime));
+        } finally {
+            deserializers.shutdown();
+        }
+    }
+
+    @Test
+    public void batched_read_groups_events_by_entity() {
+        // two entities per query, so that batches split
+        JdbcEventLog<JdbcTestEvent> batchedLog = new JdbcEventLog<>(ds, new DefaultJdbcSchema("event", "version", "snapshot") {
+            @Override
+            protected int getBatchSize() {
+                return 2;
+            }
+        }, serialization, false);
+        for (int i = 1; i <= 3; i++) {
+            insert(new JdbcTestEvent(name() + "-a", i, i));
+            insert(new JdbcTestEvent(name() + "-c", i, i * 100));
+        }
+        Map<String, Long> afterVersions = new LinkedHashMap<>();
+        afterVersions.put(name() + "-a", 0L);
+        afterVersions.put(name() + "-b", 0L);
+        afterVersions.put(name() + "-c", 1L);
+        Map<String, List<Integer>> delivered = new HashMap<>();
+        batchedLog.readEvents(afterVersions, (id, events) -> {
+            List<Integer> payloads = new ArrayList<>();
+            delivered.put(id, payloads);
+            // events of -a are not consumed at all
+            if (!id.endsWith("-a")) {
+                events.foreach(e -> payloads.add(((JdbcTestEvent) e).getPayload()));
+            }
+        });
+        assertEquals(3, delivered.size());
+        assertThat(delivered.get(name() + "-a"), empty());
+        assertThat(delivered.get(name() + "-b"), empty());
+        assertEquals(Arrays.asList(200, 300), delivered.get(name() + "-c"));
+    }
+
+    @Test
+    public void batched_reduce_passes_undeserializable_events_like_single_entity_read() {
+        generate(3);
+        JdbcEventLog<JdbcTestEvent> batchedLog = new JdbcEventLog<>(ds, new DefaultJdbcSchema("event", "version", "snapshot") {
+            @Override
+            protected int getBatchSize() {
+                return 2;
+            }
+        }, unreadable(2), true);
+        assertEquals(Arrays.asList(1L, null, 3L), reducedVersions(batchedLog));
+        Map<String, List<Long>> delivered = new HashMap<>();
+        batchedLog.readEvents(Collections.singletonMap(name(), 0L), (id, events) ->
+            delivered.put(id, events.reduce(new ArrayList<>(), (versions, e) -> {
+                versions.add(e == null ? null : e.entityStateVersion());
+                return versions;
+            })));
+        assertEquals(Arrays.asList(1L, null, 3L), delivered.get(name()));
+    }
+
+    @Test
+    public void paged_read_queries_pages_after_last_version() {
+        AtomicInteger pages = new AtomicInteger();
+        JdbcEventLog<JdbcTestEvent> pagedLog = new JdbcEventLog<>(ds, new DefaultJdbcSchema("event", "version", "snapshot") {
+            @Override
+            protected PreparedStatement selectEvents(Connection connection, String entityId, long afterVersion,
+                    int limit) throws SQLException {
+                pages.incrementAndGet();
+                return super.selectEvents(connection, entityId, afterVersion, limit);
+            }
+        }, serialization, false).paged(10).fetchSize(5);
+        List<JdbcTestEvent> events = generate(25);
+        List<JdbcTestEvent> delivered = new ArrayList<>();
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = pagedLog.readEvents(name(), 0)) {
+            ev.foreach(delivered::add);
+        }
+        assertEquals(events, delivered);
+        assertEquals(3, pages.get());
+
+        pages.set(0);
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = pagedLog.readEvents(name(), 5)) {
+            int result = ev.reduce(0, (a, e) -> a + e.getPayload());
+            assertEquals((25 * 26 / 2 - 5 * 6 / 2) * 10, result);
+        }
+        // full last page needs one more query to find out there are no more events
+        assertEquals(3, pages.get());
+    }
+
+    @Test
+    public void schema_without_paging_reads_by_single_query() {
+        JdbcEventLog<JdbcTestEvent> pagedLog = new JdbcEventLog<>(ds, new DefaultJdbcSchema("event", "version", "snapshot") {
+            @Override
+            protected boolean supportsPaging() {
+                return false;
+            }
+
+            @Override
+            protected PreparedStatement selectEvents(Connection connection, String entityId, long afterVersion,
+                    int limit) {
+                throw new UnsupportedOperationException("Paged event query is not supported");
+            }
+        }, serialization, false).paged(10);
+        List<JdbcTestEvent> events = generate(25);
+        List<JdbcTestEvent> delivered = new ArrayList<>();
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = pagedLog.readEvents(name(), 0)) {
+            ev.foreach(delivered::add);
+        }
+        assertEquals(events, delivered);
+    }
+
+    @Test
+    public void stop_stops_paged_read() {
+        eventLog.paged(10);
+        generate(30);
+        List<JdbcTestEvent> delivered = new ArrayList<>();
+        try (EventLog.StoredEvents<JdbcTestEvent> ev = eventLog.readEvents(name(), 0)) {
+            ev.foreach(e -> {
+                if (e.entityStateVersion() == 15) {
+                    ev.stop();
+                }
+                delivered.add(e);
+            });
+        }
+        assertEquals(15, delivered.size());
+    }
+
     @Test
     public void different_payload_versions_properly_deserialized() {
         List<JdbcTestEvent> oldPayloads = generate(10);
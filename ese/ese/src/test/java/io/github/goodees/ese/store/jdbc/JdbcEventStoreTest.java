@@ -20,7 +20,9 @@ package io.github.goodees.ese.store.jdbc;
  * #L%
  */
 
+import io.github.goodees.ese.Event;
 import io.github.goodees.ese.EventHeader;
+import io.github.goodees.ese.MockEntities;
 import io.github.goodees.ese.store.EventStoreException;
 import org.junit.Rule;
 import org.junit.Test;
@@ -31,8 +33,11 @@ import org.slf4j.LoggerFactory;
 import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 
@@ -253,4 +258,132 @@ public class JdbcEventStoreTest extends JdbcTest {
         assertDb(1, "select count(*) from event_collision where id = ? and payload like '%|10'", name());
         assertDb(0, "select count(*) from event_collision where id = ? and payload like '%|20'", name());
     }
+
+    @Test
+    public void conditional_update_persists_new_and_existing_entity() throws EventStoreException {
+        eventStore.conditionalUpdate();
+        eventStore.persist(new JdbcTestEvent(name(), 1, 100), new JdbcTestEvent(name(), 2, 200));
+        assertDb(2, "select version from version where id = ?", name());
+        eventStore.persist(new JdbcTestEvent(name(), 3, 100), new JdbcTestEvent(name(), 4, 200));
+        assertDb(4, "select count(*) from event where id = ?", name());
+        assertDb(4, "select version from version where id = ?", name());
+        assertDb(1, "select count(*) from version where id = ?", name());
+    }
+
+    @Test
+    public void conditional_update_fails_stale_events() {
+        eventStore.conditionalUpdate();
+        try {
+            template.update("insert into version (id, version) values(?, 10)", name());
+            eventStore.persist(new JdbcTestEvent(name(), 10, 100), new JdbcTestEvent(name(), 11, 200));
+            fail("should have failed");
+        } catch (EventStoreException e) {
+            assertEquals(EventStoreException.Fault.OPTIMISTIC_LOCK, e.getFault());
+            assertDb(0, "select count(*) from event where id = ?", name());
+            assertDb(10, "select version from version where id = ?", name());
+        }
+    }
+
+    @Test
+    public void conditional_update_keeps_version_when_serialization_fails() throws EventStoreException {
+        JdbcEventStore<JdbcTestEvent> failing = new JdbcEventStore<>(ds, schema, new TestEventSerialization() {
+            @Override
+            public String serialize(JdbcTestEvent object) {
+                if (object.entityStateVersion() == 2) {
+                    throw new IllegalStateException("Cannot serialize " + object);
+                }
+                return super.serialize(object);
+            }
+        }).conditionalUpdate();
+        failing.persist(new JdbcTestEvent(name(), 1, 100));
+        try {
+            failing.persist(new JdbcTestEvent(name(), 2, 200));
+            fail("should have failed");
+        } catch (IllegalStateException e) {
+            assertDb(1, "select count(*) from event where id = ?", name());
+            assertDb(1, "select version from version where id = ?", name());
+        }
+        eventStore.conditionalUpdate();
+        eventStore.persist(new JdbcTestEvent(name(), 2, 200));
+        assertDb(2, "select count(*) from event where id = ?", name());
+        assertDb(2, "select version from version where id = ?", name());
+    }
+
+    @Test
+    public void conditional_update_persist_latency() throws EventStoreException {
+        int count = 2000;
+        JdbcEventStore<JdbcTestEvent> conditional = new JdbcEventStore<>(ds, schema, serialization).conditionalUpdate();
+        // warm up both paths
+        persistSequence(eventStore, name() + "-warmup", 200);
+        persistSequence(conditional, name() + "-warmup-conditional", 200);
+
+        long start = System.nanoTime();
+        persistSequence(eventStore, name() + "-select", count);
+        long selectTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        persistSequence(conditional, name() + "-conditional", count);
+        long conditionalTime = System.nanoTime() - start;
+
+        assertDb(count, "select version from version where id = ?", name() + "-conditional");
+        logger.info("{} persists took {} us each with version select, {} us each with conditional update", count,
+                TimeUnit.NANOSECONDS.toMicros(selectTime) / count, TimeUnit.NANOSECONDS.toMicros(conditionalTime) / count);
+    }
+
+    private void persistSequence(JdbcEventStore<JdbcTestEvent> store, String entityId, int count)
+            throws EventStoreException {
+        for (int i = 1; i <= count; i++) {
+            store.persist(new JdbcTestEvent(entityId, i, i));
+        }
+    }
+
+    @Test
+    public void event_key_schema_persists_without_version_table() throws EventStoreException {
+        EventKeyJdbcSchema keySchema = new EventKeyJdbcSchema("event", "snapshot");
+        JdbcEventStore<JdbcTestEvent> keyStore = new JdbcEventStore<>(ds, keySchema, serialization);
+        JdbcEventLog<JdbcTestEvent> keyLog = new JdbcEventLog<>(ds, keySchema, serialization, false);
+        keyStore.persist(new JdbcTestEvent(name(), 1, 100), new JdbcTestEvent(name(), 2, 200));
+        keyStore.persist(new JdbcTestEvent(name(), 3, 300));
+        assertDb(3, "select count(*) from event where id = ?", name());
+        assertDb(0, "select count(*) from version where id = ?", name());
+
+        JdbcTestEntity entity = new JdbcTestEntity(name(), keyStore);
+        assertFalse(keyLog.confirmsEntityReflectsCurrentState(entity));
+        snapshotStore.recover(entity, keyLog, MockEntities.handler());
+        assertTrue(keyLog.confirmsEntityReflectsCurrentState(entity));
+        assertTrue(keyLog.confirmsEntityReflectsCurrentState(new JdbcTestEntity(name() + "-new", keyStore)));
+    }
+
+    @Test
+    public void event_key_schema_fails_stale_events_on_duplicate_key() throws EventStoreException {
+        JdbcEventStore<JdbcTestEvent> keyStore = new JdbcEventStore<>(ds, new EventKeyJdbcSchema("event", "snapshot"),
+                serialization);
+        keyStore.persist(new JdbcTestEvent(name(), 1, 100), new JdbcTestEvent(name(), 2, 200));
+        try {
+            keyStore.persist(new JdbcTestEvent(name(), 2, 20), new JdbcTestEvent(name(), 3, 30));
+            fail("should have failed");
+        } catch (EventStoreException e) {
+            assertEquals(EventStoreException.Fault.OPTIMISTIC_LOCK, e.getFault());
+            assertDb(2, "select count(*) from event where id = ?", name());
+            assertDb(0, "select count(*) from event where id = ? and version = 3", name());
+        }
+    }
+
+    @Test
+    public void event_key_schema_reports_other_constraint_violations_as_store_failure() {
+        JdbcEventStore<JdbcTestEvent> keyStore = new JdbcEventStore<>(ds, new EventKeyJdbcSchema("event", "snapshot") {
+            @Override
+            protected void prepareInsert(PreparedStatement insertEvent, Event event, int payloadVersion,
+                    String payload) throws SQLException {
+                super.prepareInsert(insertEvent, event, payloadVersion, payload);
+                // violates not null constraint of the key
+                insertEvent.setString(1, null);
+            }
+        }, serialization);
+        try {
+            keyStore.persist(new JdbcTestEvent(name(), 1, 100));
+            fail("should have failed");
+        } catch (EventStoreException e) {
+            assertEquals(EventStoreException.Fault.TX_ERROR, e.getFault());
+        }
+    }
 }
@@ -20,11 +20,26 @@ package io.github.goodees.ese.store.jdbc;
  * #L%
  */
 
+import io.github.goodees.ese.Event;
 import io.github.goodees.ese.EventSourcedEntity;
 import io.github.goodees.ese.MockEntities;
+import io.github.goodees.ese.store.CompressingSerialization;
+import io.github.goodees.ese.store.EventLog;
+import io.github.goodees.ese.store.SnapshotStore;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 
 public class JdbcSnapshotStoreTest extends JdbcTest {
@@ -73,6 +88,96 @@ public class JdbcSnapshotStoreTest extends JdbcTest {
         snapshotSerialization.setStoreHex(false);
     }
 
+    @Test
+    public void entities_recovered_in_batch() {
+        store(mockEntity(name() + "-1", 1, new JdbcTestSnapshot(10)));
+        store(mockEntity(name() + "-2", 4, new JdbcTestSnapshot(40)));
+        insert(new JdbcTestEvent(name() + "-2", 5, 50));
+        insert(new JdbcTestEvent(name() + "-3", 1, 70));
+        List<JdbcTestEntity> entities = Arrays.asList(new JdbcTestEntity(name() + "-1", eventStore),
+                new JdbcTestEntity(name() + "-2", eventStore), new JdbcTestEntity(name() + "-3", eventStore),
+                new JdbcTestEntity(name() + "-4", eventStore));
+        Map<String, Exception> failures = snapshotStore.recoverAll(entities, eventLog, MockEntities.handler());
+
+        assertTrue(failures.isEmpty());
+        assertEquals(Arrays.asList(10, 50, 70, 0),
+                entities.stream().map(JdbcTestEntity::getPayload).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(1L, 5L, 1L, 0L),
+                entities.stream().map(JdbcTestEntity::getStateVersion).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void compressed_and_uncompressed_snapshots_deserialized() {
+        store(mockEntity(name() + "-plain", 2, new JdbcTestSnapshot(20)));
+        JdbcSnapshotStore<JdbcTestSnapshot> compressing = new JdbcSnapshotStore<>(ds, schema,
+                new CompressingSerialization<>(snapshotSerialization, 0));
+        compressing.store(mockEntity(name(), 3, new JdbcTestSnapshot(30)), MockEntities.handler());
+        assertDb(1, "select count(*) from snapshot where id = ? and payload like 'H4sI%'", name());
+
+        JdbcTestEntity entity = new JdbcTestEntity(name(), eventStore);
+        compressing.recover(entity, eventLog, MockEntities.handler());
+        assertEquals(30, entity.getPayload());
+        JdbcTestEntity plain = new JdbcTestEntity(name() + "-plain", eventStore);
+        compressing.recover(plain, eventLog, MockEntities.handler());
+        assertEquals(20, plain.getPayload());
+    }
+
+    @Test
+    public void reported_recovery_time_excludes_snapshot() {
+        store(mockEntity(name(), 2, new JdbcTestSnapshot(20)));
+        insert(new JdbcTestEvent(name(), 3, 30));
+        JdbcSnapshotStore<JdbcTestSnapshot> slow = new JdbcSnapshotStore<>(ds, schema, new TestSnapshotSerialization() {
+            @Override
+            public JdbcTestSnapshot deserialize(int payloadVersion, String payload, String type) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.deserialize(payloadVersion, payload, type);
+            }
+        });
+        List<Long> recoveryTimes = new ArrayList<>();
+        SnapshotStore.EntityStateHandler handler = new TimingHandler(recoveryTimes);
+
+        assertEquals(1, slow.recover(new JdbcTestEntity(name(), eventStore), eventLog, handler));
+        assertTrue(slow.recoverAll(Arrays.asList(new JdbcTestEntity(name(), eventStore)), eventLog, handler).isEmpty());
+        assertEquals(2, recoveryTimes.size());
+        recoveryTimes.forEach(nanos -> assertThat(nanos, lessThan(TimeUnit.MILLISECONDS.toNanos(50))));
+    }
+
+    @Test
+    public void reported_recovery_time_excludes_event_query() {
+        insert(new JdbcTestEvent(name(), 1, 10));
+        EventLog slowQuery = new EventLog() {
+            @Override
+            public StoredEvents<? extends Event> readEvents(String entityId, long afterVersion) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return eventLog.readEvents(entityId, afterVersion);
+            }
+
+            @Override
+            public boolean confirmsEntityReflectsCurrentState(EventSourcedEntity entity) {
+                return eventLog.confirmsEntityReflectsCurrentState(entity);
+            }
+        };
+        List<Long> recoveryTimes = new ArrayList<>();
+        assertEquals(1, snapshotStore.recover(new JdbcTestEntity(name(), eventStore), slowQuery,
+            new TimingHandler(recoveryTimes)));
+        assertThat(recoveryTimes.get(0), lessThan(TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    private void insert(JdbcTestEvent event) {
+        template.update(
+            "insert into event (id, version, timestamp, type, payload_version, payload) values (?,?,?,?,?,?)",
+            event.entityId(), event.entityStateVersion(), new Date(), event.getType(),
+            serialization.payloadVersion(event), serialization.serialize(event));
+    }
+
     private void store(EventSourcedEntity entity) {
         snapshotStore.store(entity, MockEntities.handler());
     }
@@ -81,6 +186,50 @@ public class JdbcSnapshotStoreTest extends JdbcTest {
         return snapshotStore.recover(entity, eventLog, MockEntities.handler());
     }
 
+    static class TimingHandler implements SnapshotStore.EntityStateHandler {
+        private final SnapshotStore.EntityStateHandler delegate = MockEntities.handler();
+        private final List<Long> recoveryTimes;
+
+        TimingHandler(List<Long> recoveryTimes) {
+            this.recoveryTimes = recoveryTimes;
+        }
+
+        @Override
+        public void updateStateVersion(EventSourcedEntity entity, long version) {
+            delegate.updateStateVersion(entity, version);
+        }
+
+        @Override
+        public boolean restoreFromSnapshot(EventSourcedEntity entity, Object snapshot) {
+            return delegate.restoreFromSnapshot(entity, snapshot);
+        }
+
+        @Override
+        public Object createSnapshot(EventSourcedEntity entity) {
+            return delegate.createSnapshot(entity);
+        }
+
+        @Override
+        public void replayEvent(EventSourcedEntity entity, Event event) {
+            delegate.replayEvent(entity, event);
+        }
+
+        @Override
+        public void startRecovery(EventSourcedEntity entity) {
+            delegate.startRecovery(entity);
+        }
+
+        @Override
+        public void finishRecover(EventSourcedEntity entity) {
+            delegate.finishRecover(entity);
+        }
+
+        @Override
+        public void recovered(EventSourcedEntity entity, int replayedEvents, long nanos) {
+            recoveryTimes.add(nanos);
+        }
+    }
+
     private EventSourcedEntity mockEntity(String entityId, int stateVersion, Object snapshot) {
         return MockEntities.entityWithSnapshot(eventStore, entityId, stateVersion, snapshot);
     }